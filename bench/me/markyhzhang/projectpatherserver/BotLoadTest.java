@@ -0,0 +1,446 @@
+package me.markyhzhang.projectpatherserver;
+
+import java.io.BufferedReader;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @author Yi Han (Mark) Zhang
+ *
+ * This class is a load generator that connects simulated players
+ * to a running server with the text protocol, the one of the game
+ * client: init, then update/attack/KEEPLIVE at a fixed rate and bye
+ * at the end. The bots move over the map received in the handshake,
+ * only on the cells that can be walked on.
+ *
+ * It records the join latency (from the connection to the handshake),
+ * the time between two state lines received by a bot and the bytes
+ * received by each bot, and prints a summary that can be compared
+ * across builds, also written as a properties file with --out.
+ *
+ * Usage: BotLoadTest [--host localhost] [--port 5000] [--bots 100]
+ *   [--duration 30] seconds once every bot connected
+ *   [--rampUp 10] milliseconds between two connections
+ *   [--updateRate 10] packets per second of each bot
+ *   [--movement wander] still (KEEPLIVE only), random (random walk) or wander (keeps its direction until blocked)
+ *   [--attackChance 0.05] chance of an attack instead of an update
+ *   [--damage 1] damage of the attacks
+ *   [--seed 1] seed of the movements
+ *   [--out file] writes the summary as properties
+ */
+public class BotLoadTest {
+
+    /**
+     * Movement patterns of the bots
+     */
+    enum Movement {
+        STILL, RANDOM, WANDER
+    }
+
+    /**
+     * Steps of the four directions along x and y
+     */
+    private static final int[] DX = {-1, 1, 0, 0};
+    private static final int[] DY = {0, 0, -1, 1};
+
+    /**
+     * The main method of this load test
+     * @param args String[]
+     * @throws Exception if interrupted
+     */
+    public static void main(String[] args) throws Exception {
+        Properties options = new Properties();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.setProperty(args[i].replaceFirst("^--", ""), args[i + 1]);
+        }
+        String host = options.getProperty("host", "localhost");
+        int port = Integer.parseInt(options.getProperty("port", "5000"));
+        int count = Integer.parseInt(options.getProperty("bots", "100"));
+        int duration = Integer.parseInt(options.getProperty("duration", "30"));
+        int rampUp = Integer.parseInt(options.getProperty("rampUp", "10"));
+        double updateRate = Double.parseDouble(options.getProperty("updateRate", "10"));
+        Movement movement = Movement.valueOf(options.getProperty("movement", "wander").toUpperCase());
+        double attackChance = Double.parseDouble(options.getProperty("attackChance", "0.05"));
+        double damage = Double.parseDouble(options.getProperty("damage", "1"));
+        long seed = Long.parseLong(options.getProperty("seed", "1"));
+
+        Stats stats = new Stats();
+        ScheduledExecutorService senders = Executors.newScheduledThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+        long period = (long) (1e9 / updateRate);
+        ArrayList<Bot> bots = new ArrayList<>();
+
+        //connects the bots one after the other
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            Bot bot = new Bot(i, movement, attackChance, damage, new Random(seed * 31 + i), stats);
+            if (bot.connect(host, port)) {
+                bots.add(bot);
+                Threads.start(bot, "Bot-" + i, Threads.isVirtualSupported());
+                senders.scheduleAtFixedRate(bot::tick, ThreadLocalRandom.current().nextLong(period), period, TimeUnit.NANOSECONDS);
+            }
+            if (rampUp > 0) Thread.sleep(rampUp);
+        }
+        long connectedAt = System.nanoTime();
+        System.out.println(bots.size() + " bots connected in " + (connectedAt - start) / 1000000 + " ms, running for " + duration + " s");
+
+        Thread.sleep(duration * 1000L);
+        //the state lines are only counted up to here
+        stats.measuring = false;
+        long measured = System.nanoTime() - connectedAt;
+        senders.shutdownNow();
+        for (Bot bot : bots) bot.leave();
+
+        Map<String, String> summary = stats.summary(count, bots, measured);
+        summary.put("movement", movement.toString().toLowerCase());
+        summary.put("updateRate", Double.toString(updateRate));
+        for (Map.Entry<String, String> e : summary.entrySet()) {
+            System.out.printf("%-26s %s%n", e.getKey(), e.getValue());
+        }
+        String out = options.getProperty("out");
+        if (out != null) {
+            Properties file = new Properties();
+            file.putAll(summary);
+            try (OutputStream stream = new FileOutputStream(out)) {
+                file.store(stream, "BotLoadTest " + host + ":" + port);
+            }
+        }
+        System.exit(0);
+    }
+
+    /**
+     * One simulated player: a thread reading the server
+     * lines, and tick() sending its packets
+     */
+    private static final class Bot implements Runnable {
+
+        private final int id;
+        private final Movement movement;
+        private final double attackChance;
+        private final double damage;
+        private final Random random;
+        private final Stats stats;
+
+        private Socket socket;
+        private CountingInputStream in;
+        private OutputStream out;
+        private long connectStart;
+
+        /**
+         * The walkable cells of the map, by x then y, null until the handshake
+         */
+        private volatile boolean[][] walkable;
+
+        /**
+         * Cell of the bot and its current direction
+         */
+        private int x, y, direction;
+
+        /**
+         * If the server closed the connection before the end
+         */
+        private volatile boolean lost;
+        private volatile boolean leaving;
+
+        Bot(int id, Movement movement, double attackChance, double damage, Random random, Stats stats){
+            this.id = id;
+            this.movement = movement;
+            this.attackChance = attackChance;
+            this.damage = damage;
+            this.random = random;
+            this.stats = stats;
+        }
+
+        /**
+         * Connects and sends the init packet
+         * @param host String
+         * @param port integer
+         * @return boolean false if the connection failed
+         */
+        boolean connect(String host, int port){
+            connectStart = System.nanoTime();
+            try {
+                socket = new Socket(host, port);
+                socket.setTcpNoDelay(true);
+                in = new CountingInputStream(socket.getInputStream());
+                out = socket.getOutputStream();
+                send("init,Bot" + id + "," + Player.PlayerType.values()[id % Player.PlayerType.values().length].getStr());
+                return true;
+            } catch (IOException e) {
+                stats.failed.incrementAndGet();
+                if (stats.failed.get() == 1) System.out.println("Bot " + id + " failed to connect: " + e);
+                return false;
+            }
+        }
+
+        /**
+         * Reads the lines from the server until it
+         * closes the connection or the test ends
+         */
+        @Override
+        public void run() {
+            try {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+                String line = reader.readLine();
+                if (line == null) throw new IOException("closed before the handshake");
+                long last = System.nanoTime();
+                stats.join.record(last - connectStart);
+                handshake(line);
+                while ((line = reader.readLine()) != null) {
+                    long now = System.nanoTime();
+                    if (stats.measuring) {
+                        stats.interArrival.record(now - last);
+                        stats.lines.incrementAndGet();
+                    }
+                    last = now;
+                }
+                if (!leaving) lost = true;
+            } catch (IOException e) {
+                if (!leaving) lost = true;
+            }
+        }
+
+        /**
+         * Reads the spawn and the map of the handshake:
+         * uuid#x,y#map#state where the map is one digit per
+         * cell and a '|' after every column
+         * @param line String
+         */
+        private void handshake(String line){
+            String[] parts = line.split("#");
+            String[] spawn = parts[1].split(",");
+            String[] columns = parts[2].split("\\|");
+            boolean[][] cells = new boolean[columns.length][];
+            for (int i = 0; i < columns.length; i++) {
+                cells[i] = new boolean[columns[i].length()];
+                for (int j = 0; j < cells[i].length; j++) cells[i][j] = columns[i].charAt(j) <= '2';
+            }
+            synchronized (this) {
+                x = Integer.parseInt(spawn[0]);
+                y = Integer.parseInt(spawn[1]);
+                direction = random.nextInt(4);
+            }
+            walkable = cells;
+        }
+
+        /**
+         * Sends the next packet of the bot
+         */
+        synchronized void tick(){
+            if (walkable == null || leaving || lost) return;
+            if (movement == Movement.STILL) {
+                send("KEEPLIVE");
+                return;
+            }
+            if (movement == Movement.RANDOM || !canMove(direction)) {
+                //picks a direction it can move to, if any
+                int first = random.nextInt(4);
+                for (int i = 0; i < 4; i++) {
+                    direction = (first + i) % 4;
+                    if (canMove(direction)) break;
+                }
+            }
+            if (canMove(direction)) {
+                x += DX[direction];
+                y += DY[direction];
+            }
+            if (random.nextDouble() < attackChance) {
+                send("attack," + x + ".0," + y + ".0," + damage);
+                stats.attacks.incrementAndGet();
+            } else {
+                send("update," + x + ".0," + y + ".0");
+                stats.updates.incrementAndGet();
+            }
+        }
+
+        /**
+         * Getter for if the cell in a direction can be walked on
+         * @param d integer direction
+         * @return boolean
+         */
+        private boolean canMove(int d){
+            int nx = x + DX[d];
+            int ny = y + DY[d];
+            return nx >= 0 && nx < walkable.length && ny >= 0 && ny < walkable[nx].length && walkable[nx][ny];
+        }
+
+        /**
+         * Sends a line to the server
+         * @param line String without the line terminator
+         */
+        private synchronized void send(String line){
+            try {
+                out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                if (!leaving) lost = true;
+            }
+        }
+
+        /**
+         * Says bye and closes the connection
+         */
+        void leave(){
+            synchronized (this) {
+                if (!lost) send("bye");
+                leaving = true;
+            }
+            try {
+                socket.close();
+            } catch (IOException e) {
+                //already closed
+            }
+        }
+    }
+
+    /**
+     * Counts the bytes read from a stream
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private volatile long count;
+
+        CountingInputStream(InputStream in){
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+    }
+
+    /**
+     * The measurements shared by every bot
+     */
+    private static final class Stats {
+
+        final Histogram join = new Histogram();
+        final Histogram interArrival = new Histogram();
+        final AtomicLong lines = new AtomicLong();
+        final AtomicLong updates = new AtomicLong();
+        final AtomicLong attacks = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        volatile boolean measuring = true;
+
+        /**
+         * Builds the summary of the run
+         * @param count integer bots asked for
+         * @param bots ArrayList of the connected bots
+         * @param measuredNanos long time the state lines were counted
+         * @return Map of the results in order
+         */
+        Map<String, String> summary(int count, ArrayList<Bot> bots, long measuredNanos){
+            long minBytes = Long.MAX_VALUE, maxBytes = 0, totalBytes = 0;
+            int lost = 0;
+            for (Bot bot : bots) {
+                long bytes = bot.in.count;
+                minBytes = Math.min(minBytes, bytes);
+                maxBytes = Math.max(maxBytes, bytes);
+                totalBytes += bytes;
+                if (bot.lost) lost++;
+            }
+            int connected = bots.size();
+            double seconds = measuredNanos / 1e9;
+            Map<String, String> s = new LinkedHashMap<>();
+            s.put("bots", Integer.toString(count));
+            s.put("connected", Integer.toString(connected));
+            s.put("failed", Long.toString(failed.get()));
+            s.put("joined", Long.toString(join.count()));
+            s.put("lost", Integer.toString(lost));
+            s.put("seconds", String.format("%.1f", seconds));
+            s.put("join.avg.ms", String.format("%.2f", join.average()));
+            s.put("join.p50.ms", String.format("%.2f", join.percentile(50)));
+            s.put("join.p99.ms", String.format("%.2f", join.percentile(99)));
+            s.put("join.max.ms", String.format("%.2f", join.max()));
+            s.put("interArrival.avg.ms", String.format("%.2f", interArrival.average()));
+            s.put("interArrival.p50.ms", String.format("%.2f", interArrival.percentile(50)));
+            s.put("interArrival.p90.ms", String.format("%.2f", interArrival.percentile(90)));
+            s.put("interArrival.p99.ms", String.format("%.2f", interArrival.percentile(99)));
+            s.put("interArrival.p999.ms", String.format("%.2f", interArrival.percentile(99.9)));
+            s.put("interArrival.max.ms", String.format("%.2f", interArrival.max()));
+            s.put("states.perBot.perSec", String.format("%.1f", connected == 0 ? 0 : lines.get() / seconds / connected));
+            s.put("bytes.perBot.min", Long.toString(connected == 0 ? 0 : minBytes));
+            s.put("bytes.perBot.avg", Long.toString(connected == 0 ? 0 : totalBytes / connected));
+            s.put("bytes.perBot.max", Long.toString(maxBytes));
+            s.put("bytes.total.MBps", String.format("%.2f", totalBytes / 1e6 / seconds));
+            s.put("sent.updates", Long.toString(updates.get()));
+            s.put("sent.attacks", Long.toString(attacks.get()));
+            return s;
+        }
+    }
+
+    /**
+     * A histogram of durations with buckets of 0.1 ms up to 30 s,
+     * the longer ones counted in the last bucket
+     */
+    private static final class Histogram {
+
+        private static final long BUCKET_NANOS = 100000;
+        private final AtomicLongArray buckets = new AtomicLongArray(300001);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long nanos){
+            buckets.incrementAndGet((int) Math.min(nanos / BUCKET_NANOS, buckets.length() - 1));
+            count.incrementAndGet();
+            total.addAndGet(nanos);
+            max.accumulateAndGet(nanos, Math::max);
+        }
+
+        long count(){
+            return count.get();
+        }
+
+        double average(){
+            long n = count.get();
+            return n == 0 ? 0 : total.get() / 1e6 / n;
+        }
+
+        double max(){
+            return max.get() / 1e6;
+        }
+
+        /**
+         * The upper bound of the bucket of a percentile
+         * @param p double percentile from 0 to 100
+         * @return double milliseconds
+         */
+        double percentile(double p){
+            long n = count.get();
+            if (n == 0) return 0;
+            long rank = (long) Math.ceil(n * p / 100);
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= Math.max(1, rank)) return (i + 1) * BUCKET_NANOS / 1e6;
+            }
+            return max();
+        }
+    }
+}
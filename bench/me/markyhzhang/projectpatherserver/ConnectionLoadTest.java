@@ -0,0 +1,91 @@
+package me.markyhzhang.projectpatherserver;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.Socket;
+import java.util.ArrayList;
+
+/**
+ * @author Yi Han (Mark) Zhang
+ *
+ * This class is a load test that measures how many idle
+ * concurrent clients one JVM can hold in each NetworkMode.
+ * It starts a server in this JVM and keeps opening idle
+ * connections to it, reporting the platform thread count, the
+ * threads added per client and the used heap along the way.
+ *
+ * In THREAD mode every client costs two platform threads, its
+ * ClientHandler reading and its ClientWriter writing, so a client
+ * that doesn't read only blocks its own writer. With 2000 idle
+ * clients on Java 17:
+ *
+ *   THREAD   4010 platform threads (2.0 per client)   46 MB heap
+ *   VIRTUAL  same as THREAD, Java 17 has no virtual threads
+ *   NIO        11 platform threads (0.0 per client)    6 MB heap
+ *
+ * Usage: ConnectionLoadTest [thread|nio|virtual] [clients] [port]
+ * The open file limit (ulimit -n) has to be above 2x clients.
+ */
+public class ConnectionLoadTest {
+
+    /**
+     * The main method of this load test
+     * @param args String[]
+     * @throws Exception if the server can't be started
+     */
+    public static void main(String[] args) throws Exception {
+        PatherServer.NetworkMode mode = PatherServer.NetworkMode.valueOf((args.length > 0 ? args[0] : "thread").toUpperCase());
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : 5000;
+
+        //starts the server in this JVM
+        PatherServer server = new PatherServer();
+        server.setNetworkMode(mode);
+        server.generateMap(30);
+        server.start(port);
+        Thread.sleep(500);
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Runtime runtime = Runtime.getRuntime();
+        int baseThreads = threads.getThreadCount();
+        ArrayList<Socket> sockets = new ArrayList<>();
+        long start = System.nanoTime();
+
+        //opens the idle clients until the target or the first failure
+        try {
+            for (int i = 1; i <= clients; i++) {
+                sockets.add(new Socket("localhost", port));
+                if (i % 1000 == 0) report(mode, i, threads, baseThreads, runtime);
+            }
+        } catch (Exception e) {
+            System.out.println("Failed after " + sockets.size() + " clients: " + e);
+        }
+
+        //lets the server catch up with the accepted connections
+        Thread.sleep(2000);
+        System.gc();
+        System.out.println("---");
+        report(mode, sockets.size(), threads, baseThreads, runtime);
+        System.out.println("time: " + (System.nanoTime() - start) / 1000000 + " ms");
+
+        for (Socket socket : sockets) socket.close();
+        System.exit(0);
+    }
+
+    /**
+     * Prints one line of the report
+     * @param mode NetworkMode
+     * @param clients integer clients connected
+     * @param threads ThreadMXBean
+     * @param baseThreads integer platform threads before the first client
+     * @param runtime Runtime
+     */
+    private static void report(PatherServer.NetworkMode mode, int clients, ThreadMXBean threads, int baseThreads, Runtime runtime){
+        long usedMb = (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024);
+        int count = threads.getThreadCount();
+        System.out.println(mode + " clients: " + clients
+                + " platform threads: " + count
+                + String.format(" (%.1f per client)", (count - baseThreads) / (double) Math.max(1, clients))
+                + " heap used: " + usedMb + " MB");
+    }
+}
@@ -0,0 +1,129 @@
+package me.markyhzhang.projectpatherserver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Yi Han (Mark) Zhang
+ *
+ * JMH benchmark of one GameSimulation tick with every player
+ * attacking: the proximity check of each player against its
+ * SpatialGrid neighbours, then the capture of the snapshot.
+ * The attacks do no damage so nobody dies during the run.
+ *
+ * fullScan, grid and store are the collision check alone, one
+ * check per player: the old scan of every other player, the
+ * SpatialGrid lookup through the Player objects, and the lookup
+ * reading the PlayerStore arrays like GameSimulation does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CombatBench {
+
+    @Param({"10", "100", "1000"})
+    public int players;
+
+    @Param({"50", "200"})
+    public int mapSize;
+
+    private GameSimulation simulation;
+    private PlayersManager manager;
+    private Player[] all;
+    private int[] nearby = new int[16];
+
+    @Setup
+    public void setup(){
+        Random random = new Random(42);
+        PatherServer server = new PatherServer();
+        server.generateMap(mapSize, 42);
+        manager = server.getPlayersManager();
+        all = new Player[players];
+        for (int i = 0; i < players; i++) {
+            Player p = new Player(null, UUID.randomUUID(), "bot" + i, "ALPHA",
+                    1 + random.nextDouble() * (mapSize - 2), 1 + random.nextDouble() * (mapSize - 2), BinaryProtocol.TEXT);
+            p.setAttacking(true);
+            p.setAttackDamage(0);
+            manager.addPlayer(p);
+            all[i] = p;
+        }
+        simulation = new GameSimulation(server, 60);
+    }
+
+    @Benchmark
+    public WorldSnapshot tick(){
+        simulation.step();
+        return simulation.getLatest();
+    }
+
+    @Benchmark
+    public double fullScan(){
+        double hits = 0;
+        for (Player player : all) {
+            for (Player target : manager.getPlayersList()) {
+                if (target != player && target.isAttacking() && target.isAlive()) {
+                    double dx = target.getX() - player.getX();
+                    double dy = target.getY() - player.getY();
+                    if (dx * dx + dy * dy <= GameSimulation.COLLISION_DIST) hits += target.getAttackDamage() + 1;
+                }
+            }
+        }
+        return hits;
+    }
+
+    @Benchmark
+    public double grid(){
+        double hits = 0;
+        PlayerStore store = manager.getStore();
+        for (Player player : all) {
+            nearby = manager.getGrid().collectNear(player.getX(), player.getY(), GameSimulation.COLLISION_RADIUS, nearby);
+            for (int slot : nearby) {
+                if (slot < 0) break;
+                Player target = store.getPlayer(slot);
+                if (target != player && target.isAttacking() && target.isAlive()) {
+                    double dx = target.getX() - player.getX();
+                    double dy = target.getY() - player.getY();
+                    if (dx * dx + dy * dy <= GameSimulation.COLLISION_DIST) hits += target.getAttackDamage() + 1;
+                }
+            }
+        }
+        return hits;
+    }
+
+    @Benchmark
+    public double store(){
+        double hits = 0;
+        PlayerStore store = manager.getStore();
+        int high = store.getHigh();
+        for (int slot = 0; slot < high; slot++) {
+            double x = store.getX(slot);
+            double y = store.getY(slot);
+            nearby = manager.getGrid().collectNear(x, y, GameSimulation.COLLISION_RADIUS, nearby);
+            for (int target : nearby) {
+                if (target < 0) break;
+                if (target != slot && store.isAttacking(target) && store.isAlive(target)) {
+                    double dx = store.getX(target) - x;
+                    double dy = store.getY(target) - y;
+                    if (dx * dx + dy * dy <= GameSimulation.COLLISION_DIST) hits += store.getAttackDamage(target) + 1;
+                }
+            }
+        }
+        return hits;
+    }
+}
@@ -0,0 +1,73 @@
+package me.markyhzhang.projectpatherserver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Yi Han (Mark) Zhang
+ *
+ * JMH benchmark of the packet parsing done by the ClientHandler
+ * threads for every packet of a client: the text lines split by
+ * ClientSession.handleLine and the binary frames read by
+ * BinaryProtocol.readFrame and ClientSession.handleFrame.
+ *
+ * The session has no player yet, so the packets are parsed
+ * but not handed to the GameSimulation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LineParsingBench {
+
+    private ClientSession text;
+    private ClientSession binary;
+    private ByteArrayInputStream updateFrame;
+
+    @Setup
+    public void setup(){
+        text = new ClientSession(new PatherServer(), new OutboundQueue(), BinaryProtocol.TEXT, 0);
+        binary = new ClientSession(new PatherServer(), new OutboundQueue(), BinaryProtocol.VERSION, 0);
+        PacketBuffer buf = new PacketBuffer(16);
+        buf.beginFrame(BinaryProtocol.C_UPDATE);
+        buf.putFloat(12.5);
+        buf.putFloat(40.25);
+        buf.endFrame();
+        updateFrame = new ByteArrayInputStream(buf.toByteArray());
+    }
+
+    @Benchmark
+    public boolean textUpdate(){
+        return text.handleLine("update,12.5,40.25");
+    }
+
+    @Benchmark
+    public boolean textAttack(){
+        return text.handleLine("attack,12.5,40.25,10.0");
+    }
+
+    @Benchmark
+    public boolean textKeepLive(){
+        return text.handleLine("KEEPLIVE");
+    }
+
+    @Benchmark
+    public boolean binaryUpdate() throws IOException {
+        updateFrame.reset();
+        return binary.handleFrame(BinaryProtocol.readFrame(updateFrame));
+    }
+}
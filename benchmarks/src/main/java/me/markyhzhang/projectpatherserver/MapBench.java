@@ -0,0 +1,54 @@
+package me.markyhzhang.projectpatherserver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Yi Han (Mark) Zhang
+ *
+ * JMH benchmark of MapGenerator.generate for each
+ * algorithm, single or tiled. Run it with -prof gc for the
+ * bytes allocated per map (gc.alloc.rate.norm).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class MapBench {
+
+    @Param({"50", "500", "2000"})
+    public int size;
+
+    @Param({"DFS", "PRIM", "KRUSKAL"})
+    public String algorithm;
+
+    @Param({"false", "true"})
+    public boolean tiled;
+
+    private MapGenerator.Algorithm generator;
+    private long seed;
+
+    @Setup
+    public void setup(){
+        //the generated code can't see the package private enum, so it is a String parameter
+        generator = MapGenerator.Algorithm.valueOf(algorithm);
+    }
+
+    @Benchmark
+    public GameMap generate(){
+        return new MapGenerator(size, size, ++seed, generator, tiled).generate();
+    }
+}
@@ -0,0 +1,50 @@
+package me.markyhzhang.projectpatherserver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Yi Han (Mark) Zhang
+ *
+ * JMH benchmark of the encodings made once per map for the
+ * handshakes: the legacy text mapStr and the compact map.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class MapCodecBench {
+
+    @Param({"50", "500", "2000"})
+    public int size;
+
+    private GameMap map;
+
+    @Setup
+    public void setup(){
+        map = new MapGenerator(size, size, 42).generate();
+    }
+
+    @Benchmark
+    public String mapStr(){
+        return MapCodec.encodeText(map);
+    }
+
+    @Benchmark
+    public byte[] compact(){
+        return MapCodec.encodeCompact(map);
+    }
+}
@@ -0,0 +1,100 @@
+package me.markyhzhang.projectpatherserver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Yi Han (Mark) Zhang
+ *
+ * JMH benchmark of what DataSender.sync does every tick: capturing
+ * the WorldSnapshot from the PlayerStore, encoding it once per
+ * protocol, and handing the shared frame to every player's queue.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnapshotBench {
+
+    @Param({"10", "100", "1000"})
+    public int players;
+
+    private PlayersManager manager;
+    private Player[] all;
+    private WorldSnapshot base;
+    private int tick;
+
+    @Setup
+    public void setup(){
+        Random random = new Random(42);
+        manager = new PlayersManager();
+        manager.initGrid(200, 200);
+        all = new Player[players];
+        for (int i = 0; i < players; i++) {
+            all[i] = new Player(new OutboundQueue(), UUID.randomUUID(), "bot" + i, "ALPHA",
+                    random.nextDouble() * 200, random.nextDouble() * 200, BinaryProtocol.VERSION);
+            manager.addPlayer(all[i]);
+        }
+        //every player moves after the base, so the deltas carry everyone
+        base = new WorldSnapshot(++tick, manager);
+        PlayerStore store = manager.getStore();
+        for (int slot = 0; slot < store.getHigh(); slot++) {
+            store.setX(slot, store.getX(slot) + 0.5);
+            store.setY(slot, store.getY(slot) + 0.5);
+        }
+    }
+
+    @Benchmark
+    public WorldSnapshot capture(){
+        return new WorldSnapshot(++tick, manager);
+    }
+
+    @Benchmark
+    public byte[] textLine(){
+        return new WorldSnapshot(++tick, manager).getTextLine();
+    }
+
+    @Benchmark
+    public byte[] binaryFrame(){
+        return new WorldSnapshot(++tick, manager).getBinaryFrame();
+    }
+
+    @Benchmark
+    public byte[] keyframe(){
+        return new WorldSnapshot(++tick, manager).getKeyframe();
+    }
+
+    @Benchmark
+    public byte[] delta(){
+        return new WorldSnapshot(++tick, manager).getDeltaFrame(base);
+    }
+
+    /**
+     * One whole tick for version 1 binary clients: capture, encode
+     * once and queue the same frame for every player (the waiting
+     * state of the previous call is replaced, so the queues don't grow)
+     * @return WorldSnapshot
+     */
+    @Benchmark
+    public WorldSnapshot broadcast(){
+        WorldSnapshot snapshot = new WorldSnapshot(++tick, manager);
+        byte[] frame = snapshot.getBinaryFrame();
+        for (Player player : all) player.getOutbound().offerState(frame);
+        return snapshot;
+    }
+}
@@ -0,0 +1,415 @@
+package me.markyhzhang.projectpatherserver;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @author Yi Han (Mark) Zhang
+ *
+ * This class defines the compact binary wire protocol that
+ * is spoken alongside the legacy text protocol.
+ *
+ * A client chooses it by sending a version byte with the high
+ * bit set (0x80 | version) as the very first byte of the
+ * connection. Legacy clients start with an ASCII packet, so
+ * their first byte never has the high bit set.
+ *
+ * After the version byte both directions exchange frames:
+ * varint length | u8 opcode | payload
+ * where the length counts the opcode and the payload. Numbers
+ * are big-endian, coordinates and health are 32 bit floats,
+ * players are referred to by their small integer id and
+ * strings are a u8 length followed by UTF-8 bytes.
+ *
+ * Client-to-Server frames:
+ * - INIT: u8 PlayerType ordinal, string name
+ * - UPDATE: f32 x, f32 y
+ * - ATTACK: f32 x, f32 y, f32 damage
+ * - KEEPLIVE: (empty)
+ * - BYE: (empty)
+ * - ACK: i32 tick of the last KEYFRAME/DELTA applied (version 2+)
+ *
+ * Server-to-Client frames:
+ * - WELCOME: u16 id, i64 uuid msb, i64 uuid lsb, u16 spawn x, u16 spawn y,
+ *   u16 width, u16 height, then width*height u8 cells (column by column) up
+ *   to version 3, varint n, n bytes of compact map (see MapCodec) in version 4,
+ *   or u8 algorithm, i64 seed, i32 CRC32 of the cells since version 5. Version 5
+ *   clients regenerate the map with MapGenerator from the algorithm id (see
+ *   MapGenerator.Algorithm, with MapGenerator.TILED set for tiled mazes), the seed and the size (width - 2 being the size
+ *   chosen on the server) and check the CRC32 of
+ *   the cells, column by column, against the one sent
+ * - PLAYER_INFO: u16 id, u8 PlayerType ordinal, string name
+ * - PLAYER_LEFT: u16 id
+ * - SNAPSHOT: u16 count, count * (u16 id, u8 flags, f32 x, f32 y, f32 health) (version 1)
+ * - KEYFRAME: i32 tick, then the same body as SNAPSHOT (version 2+)
+ * - DELTA: i32 tick, i32 base tick, u16 removed, removed * u16 id,
+ *   u16 changed, changed * (u16 id, u8 mask, [u8 flags] [f32 x] [f32 y] [f32 health])
+ *   where only the fields whose DELTA_* bit is set in the mask are present (version 2+)
+ * - INTEREST: u16 left, left * u16 id, u16 entered, entered * u16 id (version 3+)
+ *
+ * Version 2 clients receive a KEYFRAME after their WELCOME and then
+ * DELTA frames against the last tick they acknowledged. The client
+ * rebuilds a tick by copying the state of the base tick, dropping the
+ * removed ids and overwriting the changed fields, so it has to keep
+ * the states of the ticks it acknowledged until a newer one is used
+ * as base. A KEYFRAME is sent again periodically and whenever the
+ * acknowledged tick is too old for the server to remember.
+ *
+ * When the server has an interest radius, version 3 clients only
+ * receive the players in their area of interest. An INTEREST frame
+ * announces the players that entered or left the area before the
+ * KEYFRAME/DELTA of that tick; the DELTA then lists the players that
+ * left as removed and carries every field of the players that
+ * entered since its base tick. Clients ignore removed ids they don't have.
+ *
+ * With update tiers (see UpdateTiers), the DELTA to a version 3 client
+ * only carries the players due at its tick and the ones that entered
+ * since its base tick: the farther ones are left out on most ticks and
+ * keep their state of the base tick, and carry every field when they
+ * were left out at or after the base tick.
+ */
+final class BinaryProtocol {
+
+    /**
+     * The current version of the binary protocol
+     */
+    static final int VERSION = 5;
+
+    /**
+     * First version using KEYFRAME/DELTA instead of SNAPSHOT
+     */
+    static final int VERSION_DELTA = 2;
+
+    /**
+     * First version supporting area of interest filtering
+     */
+    static final int VERSION_INTEREST = 3;
+
+    /**
+     * First version receiving the map in the compact encoding
+     */
+    static final int VERSION_COMPACT_MAP = 4;
+
+    /**
+     * First version regenerating the map from its seed
+     */
+    static final int VERSION_MAP_SEED = 5;
+
+    /**
+     * Bit set on the first byte of a binary connection
+     */
+    static final int HANDSHAKE_FLAG = 0x80;
+
+    /**
+     * Protocol version of legacy text clients
+     */
+    static final int TEXT = 0;
+
+    /**
+     * Largest frame accepted from a client
+     */
+    static final int MAX_CLIENT_FRAME = 1024;
+
+    /**
+     * Longest line accepted from a text client, without its newline
+     */
+    static final int MAX_CLIENT_LINE = 1024;
+
+    /**
+     * Client-to-Server opcodes
+     */
+    static final int C_INIT = 0x01;
+    static final int C_UPDATE = 0x02;
+    static final int C_ATTACK = 0x03;
+    static final int C_KEEPLIVE = 0x04;
+    static final int C_BYE = 0x05;
+    static final int C_ACK = 0x06;
+
+    /**
+     * Server-to-Client opcodes
+     */
+    static final int S_WELCOME = 0x10;
+    static final int S_PLAYER_INFO = 0x11;
+    static final int S_PLAYER_LEFT = 0x12;
+    static final int S_SNAPSHOT = 0x13;
+    static final int S_KEYFRAME = 0x14;
+    static final int S_DELTA = 0x15;
+    static final int S_INTEREST = 0x16;
+
+    /**
+     * Bits of the status flags of a player in a snapshot
+     */
+    static final int FLAG_DIED = 1;
+    static final int FLAG_ATTACKING = 2;
+    static final int FLAG_DAMAGING = 4;
+
+    /**
+     * Bits of the field mask of a player in a delta
+     */
+    static final int DELTA_FLAGS = 1;
+    static final int DELTA_X = 2;
+    static final int DELTA_Y = 4;
+    static final int DELTA_HEALTH = 8;
+    static final int DELTA_ALL = DELTA_FLAGS | DELTA_X | DELTA_Y | DELTA_HEALTH;
+
+    /**
+     * No instances of this class
+     */
+    private BinaryProtocol(){
+    }
+
+    /**
+     * Decides if the first byte of a connection
+     * selects the binary protocol
+     * @param firstByte integer 0-255
+     * @return boolean
+     */
+    static boolean isHandshake(int firstByte){
+        return (firstByte & HANDSHAKE_FLAG) != 0;
+    }
+
+    /**
+     * Reads one frame from a blocking stream
+     * @param in InputStream
+     * @return ByteBuffer positioned at the opcode, null at end of stream
+     * @throws IOException if the stream fails or the frame is invalid
+     */
+    static ByteBuffer readFrame(InputStream in) throws IOException {
+        int length = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.read();
+            if (b < 0) {
+                if (shift == 0) return null;
+                throw new EOFException();
+            }
+            length |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0 && shift < 28);
+        if (length <= 0 || length > MAX_CLIENT_FRAME) throw new IOException("Invalid frame length " + length);
+        byte[] frame = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int n = in.read(frame, read, length - read);
+            if (n < 0) throw new EOFException();
+            read += n;
+        }
+        return ByteBuffer.wrap(frame);
+    }
+
+    /**
+     * Reads a u8 length prefixed UTF-8 string
+     * @param buf ByteBuffer
+     * @return String
+     */
+    static String getString(ByteBuffer buf){
+        int len = buf.get() & 0xFF;
+        byte[] bytes = new byte[len];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a WELCOME frame without its map data. The map data
+     * is shared by every handshake, so it isn't copied in the buffer
+     * and has to be sent right after it. Version 5 clients get the
+     * seed and checksum instead and nothing follows
+     * @param buf PacketBuffer
+     * @param p Player joining
+     * @param spawn GridPoint spawn location
+     * @param width integer number of map columns
+     * @param height integer number of cells in a map column
+     * @param algorithm integer id of the map algorithm (see MapGenerator.getAlgorithmId)
+     * @param seed long seed of the map
+     * @param checksum integer CRC32 of the map cells
+     * @param map byte[] MapCodec cells or compact map, depending on the client version, null for version 5
+     */
+    static void writeWelcome(PacketBuffer buf, Player p, GridPoint spawn, int width, int height, int algorithm, long seed, int checksum, byte[] map){
+        buf.beginFrame(S_WELCOME);
+        buf.putShort(p.getNetId());
+        buf.putLong(p.getId().getMostSignificantBits());
+        buf.putLong(p.getId().getLeastSignificantBits());
+        buf.putShort(spawn.x);
+        buf.putShort(spawn.y);
+        buf.putShort(width);
+        buf.putShort(height);
+        if (p.getProtocol() >= VERSION_MAP_SEED) {
+            buf.putByte(algorithm);
+            buf.putLong(seed);
+            buf.putInt(checksum);
+            buf.endFrame();
+            return;
+        }
+        if (p.getProtocol() >= VERSION_COMPACT_MAP) buf.putVarInt(map.length);
+        buf.endFrame(map.length);
+    }
+
+    /**
+     * Writes a PLAYER_INFO frame
+     * @param buf PacketBuffer
+     * @param p Player
+     */
+    static void writePlayerInfo(PacketBuffer buf, Player p){
+        buf.beginFrame(S_PLAYER_INFO);
+        buf.putShort(p.getNetId());
+        buf.putByte(p.getType().ordinal());
+        buf.putString(p.getName());
+        buf.endFrame();
+    }
+
+    /**
+     * Writes a PLAYER_LEFT frame
+     * @param buf PacketBuffer
+     * @param netId integer id of the player
+     */
+    static void writePlayerLeft(PacketBuffer buf, int netId){
+        buf.beginFrame(S_PLAYER_LEFT);
+        buf.putShort(netId);
+        buf.endFrame();
+    }
+
+    /**
+     * Writes a SNAPSHOT frame of every player
+     * @param buf PacketBuffer
+     * @param snapshot WorldSnapshot
+     */
+    static void writeSnapshot(PacketBuffer buf, WorldSnapshot snapshot){
+        buf.beginFrame(S_SNAPSHOT);
+        writePlayers(buf, snapshot, null);
+        buf.endFrame();
+    }
+
+    /**
+     * Writes a KEYFRAME frame
+     * @param buf PacketBuffer
+     * @param snapshot WorldSnapshot
+     * @param interest InterestSet of the client, null for every player
+     */
+    static void writeKeyframe(PacketBuffer buf, WorldSnapshot snapshot, InterestSet interest){
+        buf.beginFrame(S_KEYFRAME);
+        buf.putInt(snapshot.getTick());
+        writePlayers(buf, snapshot, interest);
+        buf.endFrame();
+    }
+
+    /**
+     * Writes an INTEREST frame with the players that
+     * entered or left the area at the last update
+     * @param buf PacketBuffer
+     * @param interest InterestSet
+     */
+    static void writeInterest(PacketBuffer buf, InterestSet interest){
+        buf.beginFrame(S_INTEREST);
+        buf.putShort(interest.getLeftCount());
+        for (int i = 0; i < interest.getLeftCount(); i++) buf.putShort(interest.getLeft(i));
+        buf.putShort(interest.getEnteredCount());
+        for (int i = 0; i < interest.getEnteredCount(); i++) buf.putShort(interest.getEntered(i));
+        buf.endFrame();
+    }
+
+    /**
+     * Writes the full state of the players
+     * @param buf PacketBuffer
+     * @param snapshot WorldSnapshot
+     * @param interest InterestSet of the client, null for every player
+     */
+    private static void writePlayers(PacketBuffer buf, WorldSnapshot snapshot, InterestSet interest){
+        int countPos = buf.size();
+        buf.putShort(0);
+        int count = 0;
+        for (int i = 0; i < snapshot.size(); i++) {
+            if (interest != null && !interest.contains(snapshot.getPlayer(i))) continue;
+            count++;
+            buf.putShort(snapshot.getPlayer(i).getNetId());
+            buf.putByte(snapshot.getFlags(i));
+            buf.putFloat(snapshot.getX(i));
+            buf.putFloat(snapshot.getY(i));
+            buf.putFloat(snapshot.getHealth(i));
+        }
+        patchShort(buf, countPos, count);
+    }
+
+    /**
+     * Writes a DELTA frame with only what changed between
+     * the base snapshot and the current one. Values are compared
+     * as the floats sent on the wire, so changes too small to be
+     * seen by the client aren't sent.
+     * @param buf PacketBuffer
+     * @param snapshot WorldSnapshot current
+     * @param base WorldSnapshot acknowledged by the client
+     * @param interest InterestSet of the client, null for every player
+     */
+    static void writeDelta(PacketBuffer buf, WorldSnapshot snapshot, WorldSnapshot base, InterestSet interest){
+        buf.beginFrame(S_DELTA);
+        buf.putInt(snapshot.getTick());
+        buf.putInt(base.getTick());
+
+        //players of the base that are gone (or whose id now belongs to someone else)
+        int removedPos = buf.size();
+        buf.putShort(0);
+        int removed = 0;
+        for (int i = 0; i < base.size(); i++) {
+            Player p = base.getPlayer(i);
+            int j = snapshot.indexOf(p.getNetId());
+            boolean gone = j < 0 || snapshot.getPlayer(j) != p;
+            //with an area of interest, also the ones that left it since the base
+            if (interest != null && !gone) gone = !interest.contains(p) && interest.leftAfter(p.getNetId(), base.getTick());
+            if (gone) {
+                buf.putShort(p.getNetId());
+                removed++;
+            }
+        }
+        patchShort(buf, removedPos, removed);
+
+        //players with at least one changed field
+        int changedPos = buf.size();
+        buf.putShort(0);
+        int changed = 0;
+        for (int i = 0; i < snapshot.size(); i++) {
+            Player p = snapshot.getPlayer(i);
+            boolean entered = false;
+            if (interest != null) {
+                if (!interest.contains(p)) continue;
+                entered = interest.enteredAfter(p, base.getTick());
+                //with update tiers, the players not due this tick are left out unless the client doesn't have them
+                if (!entered && !interest.isDue(p)) continue;
+            }
+            int j = base.indexOf(p.getNetId());
+            int mask;
+            if (j < 0 || base.getPlayer(j) != p || entered || (interest != null && interest.skippedSince(p, base.getTick()))) {
+                mask = DELTA_ALL;
+            } else {
+                mask = 0;
+                if (snapshot.getFlags(i) != base.getFlags(j)) mask |= DELTA_FLAGS;
+                if ((float) snapshot.getX(i) != (float) base.getX(j)) mask |= DELTA_X;
+                if ((float) snapshot.getY(i) != (float) base.getY(j)) mask |= DELTA_Y;
+                if ((float) snapshot.getHealth(i) != (float) base.getHealth(j)) mask |= DELTA_HEALTH;
+                if (mask == 0) continue;
+            }
+            buf.putShort(p.getNetId());
+            buf.putByte(mask);
+            if ((mask & DELTA_FLAGS) != 0) buf.putByte(snapshot.getFlags(i));
+            if ((mask & DELTA_X) != 0) buf.putFloat(snapshot.getX(i));
+            if ((mask & DELTA_Y) != 0) buf.putFloat(snapshot.getY(i));
+            if ((mask & DELTA_HEALTH) != 0) buf.putFloat(snapshot.getHealth(i));
+            changed++;
+        }
+        patchShort(buf, changedPos, changed);
+        buf.endFrame();
+    }
+
+    /**
+     * Overwrites an unsigned 16 bit integer already written
+     * @param buf PacketBuffer
+     * @param pos integer position
+     * @param v integer
+     */
+    private static void patchShort(PacketBuffer buf, int pos, int v){
+        buf.array()[pos] = (byte) (v >>> 8);
+        buf.array()[pos + 1] = (byte) v;
+    }
+}
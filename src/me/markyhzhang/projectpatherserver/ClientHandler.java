@@ -1,11 +1,15 @@
 package me.markyhzhang.projectpatherserver;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.PrintStream;
+import java.io.PushbackInputStream;
 import java.net.Socket;
 import java.net.SocketException;
-import java.util.UUID;
+import java.nio.ByteBuffer;
 
 /**
  * @author Yi Han (Mark) Zhang
@@ -23,14 +27,14 @@ class ClientHandler implements Runnable {
     //instance of main class
     private PatherServer instance;
 
-    //PlayersManager from main class instance
-    private PlayersManager players;
+    //System.nanoTime() when the client was accepted
+    private long acceptedAt;
 
     //constructor that takes in the socket for the client
     ClientHandler(Socket client, PatherServer instance){
         this.client = client;
         this.instance = instance;
-        players = instance.getPlayersManager();
+        acceptedAt = System.nanoTime();
     }
 
     /**
@@ -41,146 +45,24 @@ class ClientHandler implements Runnable {
      */
     @Override
     public void run() {
+        //Initializes the queue of data for the current client, written by its own ClientWriter thread.
+        OutboundQueue out = new OutboundQueue();
         try {
-            //collision distance squared
-            double collisionDist = 1.5*1.5;
-
             //Displays the Player information with its IP
             System.out.println("A Player connected from " + client.getInetAddress().getHostName());
 
-            //Initializes a PrintStream object for the current client for sending informations to the client.
-            PrintStream out = new PrintStream(client.getOutputStream());
-
-            //Initializes a BufferedReader object for reading packets from the client.
-            BufferedReader buf = new BufferedReader(new InputStreamReader(client.getInputStream()));
-
-            //set the running variable as true
-            boolean flag = true;
-
-            //Declare a dummy Player object for the current Client.
-            Player player = null;
-
-            /*
-            This while loop will stop when flag or the server stops
-            This is the main content/function of the method.
-
-            Player-to-Server Packet format:
-            - keep live packet: KEEPLIVE (the purpose of this packet is to for the client to continue to receive
-            information about other players even when the player is not moving and not attacking [idling])
-            - initialization packet: init,x,y,playerName,PlayerTypeEnum
-            - location update packet: update,x,y
-            - attack packet: attack,x,y,damage(Double type)
-             */
-            while (flag && instance.isRunning()) {
-                try {
-                    String str = buf.readLine();
-                    if (str==null) continue;
-                    //Split info by (comma) into a String array
-                    String[] info = str.split(",");
-                    //get the packet type
-                    String option = info[0];
-
-                    if (option.equals("bye")) {
-                        System.out.println("Player " + player.getName() + " left the game.");
-                        //remove player from DataSender list
-                        instance.getDataSender().removePlayer(player);
-                        players.removePlayer(player.getId());
-                        //Stop this loop
-                        flag = false;
-                    }
-
-                    switch (option) {
-                        case "init":
-                            //create new UUID for the player
-                            UUID uuid = UUID.randomUUID();
-                            //get the name of player
-                            String name = info[1];
-                            //get the PlayerType enum type of the player
-                            String character = info[2];
-                            //Creates a player object for this newly joined client
-                            player = new Player(out, uuid, name, character, -1, -1);
-
-                            //Add this player to the DataSender client list
-                            instance.getDataSender().addPlayer(player);
-                            break;
-                        case "update": {
-                            //get location variable
-                            double x = Double.parseDouble(info[1]);
-                            double y = Double.parseDouble(info[2]);
-                            //update player location
-                            player.setX(x);
-                            player.setY(y);
-                            //set attacking state false
-                            player.setAttacking(false);
-                            break;
-                        }
-                        case "attack": {
-                            //get location variable
-                            double x = Double.parseDouble(info[1]);
-                            double y = Double.parseDouble(info[2]);
-                            //set attacking state to true
-                            player.setAttacking(true);
-
-                            //update player location
-                            player.setX(x);
-                            player.setY(y);
-
-                            //read in double damage information
-                            player.setAttackDamage(Double.parseDouble(info[3]));
-                            break;
-                        }
-                    }
-
-                    /*
-                     * This block of code is handling player collision
-                     * for attacking and damaging feature of the game
-                     *
-                     * It is set to that the collision distance to be 1.5 radius.
-                     * This means that the player can be damaged or effectively attacking
-                     * when they are 1.5 block away from other player
-                     */
-                    //if player isn't null
-                    if (player != null) {
-                        //if player is alive
-                        if (player.isAlive()) {
-                            boolean attackedFlag = false;
-                            //loop through all the players
-                            for (UUID id : players.getPlayers()) {
-                                Player target = players.getPlayer(id);
-                                //if this player is other player and is attacking and is alive
-                                if (!target.getId().equals(player.getId()) && target.isAttacking() && target.isAlive()) {
-                                    //get location of both player
-                                    double targetX = target.getX();
-                                    double targetY = target.getY();
-                                    double thisX = player.getX();
-                                    double thisY = player.getY();
-                                    //using the circle formula see if they collide
-                                    if (Math.pow((targetX - thisX), 2) + Math.pow(targetY - thisY, 2) <= collisionDist) {
-                                        //set add on the current player
-                                        player.setDamaging(true);
-                                        player.damage(target.getAttackDamage());
-                                        attackedFlag = true;
-                                    }
-                                }
-                            }
-                            if (!attackedFlag) player.setDamaging(false);
-                        } else {
-                            player.setDamaging(false);
-                        }
-                    }
-                } catch (SocketException e) {
-                    //If a SocketException is thrown that means this player left the game
-                    if (player!=null) {
-                        System.out.println("Player " + player.getName() + " left the game.");
-                        //remove player from DataSender list
-                        instance.getDataSender().removePlayer(player);
-                        players.removePlayer(player.getId());
-                    }else{
-                        System.out.println("A Player failed to connect");
-                    }
-                    //Stop this loop
-                    flag = false;
-                }
+            Threads.start(new ClientWriter(client, out), "ClientWriter", instance.getNetworkMode() == PatherServer.NetworkMode.VIRTUAL);
+
+            //Peeks at the first byte to choose between the binary and the legacy text protocol, counting what is read
+            PushbackInputStream in = new PushbackInputStream(new BufferedInputStream(new CountingInputStream(client.getInputStream())));
+            int first = in.read();
+            if (first < 0) {
+                System.out.println("A Player failed to connect");
+            } else if (BinaryProtocol.isHandshake(first)) {
+                runBinary(in, new ClientSession(instance, out, first & ~BinaryProtocol.HANDSHAKE_FLAG, acceptedAt));
+            } else {
+                in.unread(first);
+                runText(in, new ClientSession(instance, out, BinaryProtocol.TEXT, acceptedAt));
             }
             //closes the input/output stream
             client.close();
@@ -193,6 +75,115 @@ class ClientHandler implements Runnable {
                 System.out.println("Wow! Wut was that");
                 e.printStackTrace();
             }
+        } finally {
+            //stops the ClientWriter
+            out.close();
+        }
+    }
+
+    /**
+     * Reads legacy text packets until the client
+     * leaves or the server stops
+     * @param in InputStream from the client
+     * @param session ClientSession of the client
+     * @throws Exception if something went wrong
+     */
+    private void runText(InputStream in, ClientSession session) throws Exception {
+        //Initializes a BufferedReader object for reading packets from the client.
+        BufferedReader buf = new BufferedReader(new InputStreamReader(in));
+
+        //set the running variable as true
+        boolean flag = true;
+
+        /*
+        This while loop will stop when flag or the server stops
+        This is the main content/function of the method.
+        See ClientSession for the Player-to-Server packet format.
+         */
+        try {
+            while (flag && instance.isRunning()) {
+                String str = buf.readLine();
+                if (str==null) {
+                    //the client closed the connection without saying bye
+                    flag = false;
+                    continue;
+                }
+                flag = decode(session, str, null);
+            }
+        } catch (SocketException e) {
+            //If a SocketException is thrown that means this player left the game
+        } finally {
+            //whatever ended the connection, the player must not stay in the game
+            session.disconnected();
+        }
+    }
+
+    /**
+     * Reads binary protocol frames until the client
+     * leaves or the server stops
+     * @param in InputStream from the client
+     * @param session ClientSession of the client
+     * @throws Exception if something went wrong
+     */
+    private void runBinary(InputStream in, ClientSession session) throws Exception {
+        boolean flag = true;
+        try {
+            while (flag && instance.isRunning()) {
+                ByteBuffer frame = BinaryProtocol.readFrame(in);
+                if (frame==null) {
+                    //the client closed the connection without saying bye
+                    flag = false;
+                    continue;
+                }
+                flag = decode(session, null, frame);
+            }
+        } catch (SocketException e) {
+            //If a SocketException is thrown that means this player left the game
+        } finally {
+            //whatever ended the connection, the player must not stay in the game
+            session.disconnected();
+        }
+    }
+
+    /**
+     * Hands a line or a frame to the session, a malformed one
+     * ends the connection like it does on the NioWorker
+     * @param session ClientSession of the client
+     * @param line String line of a text client, or null
+     * @param frame ByteBuffer frame of a binary client, or null
+     * @return false if the connection must be closed
+     */
+    private boolean decode(ClientSession session, String line, ByteBuffer frame){
+        try {
+            return line != null ? session.handleLine(line) : session.handleFrame(frame);
+        } catch (RuntimeException e) {
+            System.out.println("A Player sent a malformed packet and was disconnected.");
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Counts the bytes read from the socket into the metrics
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+
+        CountingInputStream(InputStream in){
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) ServerMetrics.BYTES_IN.increment();
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) ServerMetrics.BYTES_IN.add(read);
+            return read;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,251 @@
+package me.markyhzhang.projectpatherserver;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * @author Yi Han (Mark) Zhang
+ *
+ * This class holds the state of one connected client
+ * and turns the packets it sends into server-understandable
+ * information. It is shared by the blocking ClientHandler
+ * and the non-blocking NioServer so both decode the packets
+ * the exact same way.
+ */
+class ClientSession {
+
+    /**
+     * Names of the binary packets by opcode, the same as the text packets
+     */
+    private static final String[] PACKET_NAMES = {"unknown", "init", "update", "attack", "KEEPLIVE", "bye", "ack"};
+
+    /**
+     * instance of main class
+     */
+    private PatherServer instance;
+
+    /**
+     * The queue of data to the client
+     */
+    private OutboundQueue out;
+
+    /**
+     * The protocol version spoken by the client
+     */
+    private int protocol;
+
+    /**
+     * System.nanoTime() when the connection was accepted
+     */
+    private long acceptedAt;
+
+    /**
+     * The Player object of this client, null until init
+     */
+    private Player player;
+
+    /**
+     * Either the client left or was disconnected already
+     */
+    private boolean ended = false;
+
+    /**
+     * The constructor for this class
+     * @param instance PatherServer main class
+     * @param out OutboundQueue to the client
+     * @param protocol integer protocol version, BinaryProtocol.TEXT for legacy clients
+     * @param acceptedAt long System.nanoTime() when the connection was accepted
+     */
+    ClientSession(PatherServer instance, OutboundQueue out, int protocol, long acceptedAt){
+        this.instance = instance;
+        this.out = out;
+        this.protocol = protocol;
+        this.acceptedAt = acceptedAt;
+    }
+
+    /**
+     * Handles one line/packet sent by the client.
+     *
+     * Player-to-Server Packet format:
+     * - keep live packet: KEEPLIVE (the purpose of this packet is to for the client to continue to receive
+     * information about other players even when the player is not moving and not attacking [idling])
+     * - initialization packet: init,x,y,playerName,PlayerTypeEnum
+     * - location update packet: update,x,y
+     * - attack packet: attack,x,y,damage(Double type)
+     *
+     * @param str String line without the line terminator
+     * @return false if the client left the game with a bye packet
+     */
+    boolean handleLine(String str){
+        ServerMetrics.MESSAGES_IN.increment();
+        FlightEvents.DecodeEvent event = new FlightEvents.DecodeEvent();
+        event.begin();
+        boolean open = decodeLine(str);
+        if (event.shouldCommit()) {
+            int comma = str.indexOf(',');
+            event.protocol = protocol;
+            event.packet = comma < 0 ? str : str.substring(0, comma);
+            event.bytes = str.length() + 1;
+            event.commit();
+        }
+        return open;
+    }
+
+    /**
+     * Applies one line/packet sent by the client
+     * @param str String line without the line terminator
+     * @return false if the client left the game with a bye packet
+     */
+    private boolean decodeLine(String str){
+        //Split info by (comma) into a String array
+        String[] info = str.split(",");
+        //get the packet type
+        String option = info[0];
+
+        if (option.equals("bye")) {
+            leave();
+            return false;
+        }
+
+        switch (option) {
+            case "init":
+                //get the name and the PlayerType enum type of the player
+                init(info[1], info[2]);
+                break;
+            case "update":
+                //get location variable
+                update(Double.parseDouble(info[1]), Double.parseDouble(info[2]));
+                break;
+            case "attack":
+                //get location variable and read in double damage information
+                attack(Double.parseDouble(info[1]), Double.parseDouble(info[2]), Double.parseDouble(info[3]));
+                break;
+        }
+        return true;
+    }
+
+    /**
+     * Handles one binary protocol frame sent by the client.
+     * See BinaryProtocol for the frame formats.
+     * @param frame ByteBuffer positioned at the opcode
+     * @return false if the client left the game with a bye frame
+     */
+    boolean handleFrame(ByteBuffer frame){
+        ServerMetrics.MESSAGES_IN.increment();
+        FlightEvents.DecodeEvent event = new FlightEvents.DecodeEvent();
+        event.begin();
+        int bytes = frame.remaining();
+        int opcode = bytes > 0 ? frame.get(frame.position()) & 0xFF : 0;
+        boolean open = decodeFrame(frame);
+        if (event.shouldCommit()) {
+            event.protocol = protocol;
+            event.packet = PACKET_NAMES[opcode < PACKET_NAMES.length ? opcode : 0];
+            event.bytes = bytes;
+            event.commit();
+        }
+        return open;
+    }
+
+    /**
+     * Applies one binary protocol frame sent by the client
+     * @param frame ByteBuffer positioned at the opcode
+     * @return false if the client left the game with a bye frame
+     */
+    private boolean decodeFrame(ByteBuffer frame){
+        int opcode = frame.get() & 0xFF;
+        switch (opcode) {
+            case BinaryProtocol.C_BYE:
+                leave();
+                return false;
+            case BinaryProtocol.C_INIT: {
+                int type = frame.get() & 0xFF;
+                if (type >= Player.PlayerType.values().length) {
+                    //reject the client rather than failing on the ordinal
+                    System.out.println("A Player sent an invalid player type " + type);
+                    leave();
+                    return false;
+                }
+                init(BinaryProtocol.getString(frame), Player.PlayerType.values()[type].name());
+                break;
+            }
+            case BinaryProtocol.C_UPDATE:
+                update(frame.getFloat(), frame.getFloat());
+                break;
+            case BinaryProtocol.C_ATTACK:
+                attack(frame.getFloat(), frame.getFloat(), frame.getFloat());
+                break;
+            case BinaryProtocol.C_ACK:
+                //acks only move forward, a late ack must not roll the delta base back
+                if (player != null) {
+                    int tick = frame.getInt();
+                    if (tick > player.getAckedTick()) player.setAckedTick(tick);
+                }
+                return true;
+        }
+        return true;
+    }
+
+    /**
+     * Creates the player of this client
+     * @param name String name of the player
+     * @param character String PlayerType enum name
+     */
+    private void init(String name, String character){
+        //create new UUID for the player
+        UUID uuid = UUID.randomUUID();
+        //Creates a player object for this newly joined client
+        player = new Player(out, uuid, name, character, -1, -1, protocol);
+        player.setAcceptedAt(acceptedAt);
+
+        //Add this player to the DataSender client list
+        instance.getDataSender().addPlayer(player);
+    }
+
+    /**
+     * Handles a location update, applied by the GameSimulation on its next tick
+     * @param x double
+     * @param y double
+     */
+    private void update(double x, double y){
+        if (player == null) return;
+        instance.getSimulation().submit(new PlayerInput(PlayerInput.Type.MOVE, player, x, y, 0));
+    }
+
+    /**
+     * Handles an attack, applied by the GameSimulation on its next tick
+     * @param x double
+     * @param y double
+     * @param damage double
+     */
+    private void attack(double x, double y, double damage){
+        if (player == null) return;
+        instance.getSimulation().submit(new PlayerInput(PlayerInput.Type.ATTACK, player, x, y, damage));
+    }
+
+    /**
+     * Called when the connection to the client is lost
+     * without a bye packet
+     */
+    void disconnected(){
+        //nothing to do if the client already left with a bye packet
+        if (ended) return;
+        ended = true;
+        if (player!=null) {
+            leave();
+        }else{
+            System.out.println("A Player failed to connect");
+        }
+    }
+
+    /**
+     * Removes the player of this session from the game
+     */
+    private void leave(){
+        ended = true;
+        if (player == null) return;
+        System.out.println("Player " + player.getName() + " left the game.");
+        //remove player from DataSender list, it is removed from PlayersManager on the next tick
+        instance.getDataSender().removePlayer(player);
+        player = null;
+    }
+}
@@ -0,0 +1,79 @@
+package me.markyhzhang.projectpatherserver;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+
+/**
+ * @author Yi Han (Mark) Zhang
+ *
+ * This class writes the OutboundQueue of one blocking
+ * client to its socket on its own thread, so only this
+ * thread waits when the client doesn't read fast enough.
+ */
+class ClientWriter implements Runnable {
+
+    /**
+     * Socket for the client
+     */
+    private Socket client;
+
+    /**
+     * The data waiting to be sent to the client
+     */
+    private OutboundQueue queue;
+
+    /**
+     * The constructor for this class
+     * @param client Socket of the client
+     * @param queue OutboundQueue of the client
+     */
+    ClientWriter(Socket client, OutboundQueue queue){
+        this.client = client;
+        this.queue = queue;
+    }
+
+    /**
+     * Implementation method for being a Runnable type
+     * Writes everything queued until the queue is closed,
+     * flushing whenever the queue is empty
+     */
+    @Override
+    public void run() {
+        try {
+            OutputStream out = new BufferedOutputStream(client.getOutputStream(), 8192);
+            byte[] data;
+            while ((data = queue.take()) != null) {
+                write(out, data);
+                //write everything already waiting before flushing
+                while ((data = queue.poll()) != null) write(out, data);
+                out.flush();
+            }
+        } catch (IOException | InterruptedException e) {
+            //the connection is lost, the ClientHandler removes the player
+        }
+        if (queue.isOverflowed()) {
+            ServerMetrics.SLOW_DISCONNECTS.increment();
+            System.out.println("A Player was disconnected for not keeping up.");
+        }
+        try {
+            //wakes up the ClientHandler blocked on reading
+            client.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes data and counts it
+     * @param out OutputStream to the client
+     * @param data byte[]
+     * @throws IOException if the connection is lost
+     */
+    private static void write(OutputStream out, byte[] data) throws IOException {
+        out.write(data);
+        ServerMetrics.BYTES_OUT.add(data.length);
+        ServerMetrics.MESSAGES_OUT.increment();
+    }
+}
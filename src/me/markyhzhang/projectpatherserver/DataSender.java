@@ -1,9 +1,9 @@
 package me.markyhzhang.projectpatherserver;
 
-import java.awt.Point;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.Queue;
-import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * @author Yi Han (Mark) Zhang
@@ -26,37 +26,163 @@ public class DataSender implements Runnable{
     private PlayersManager players;
 
     /**
-     * String map from pather server main class
+     * initialization of new player queue, written by the client
+     * threads and only read by the DataSender thread
      */
-    private String mapStr;
+    private Queue<Player> addPlayers = new ConcurrentLinkedQueue<>();
 
     /**
-     * initialization of uuidQueue queue
+     * initialization of left player queue, written by the client
+     * threads and only read by the DataSender thread
      */
-    private Queue<UUID> uuidQueue = new LinkedList<UUID>();
+    private Queue<Player> removePlayers = new ConcurrentLinkedQueue<>();
 
     /**
-     * initialization of new player queue
+     * The players added that didn't get their handshake yet
      */
-    private Queue<Player> addPlayers = new LinkedList<Player>();
+    private ArrayList<Player> joining = new ArrayList<>();
 
     /**
-     * initialization of left player queue
+     * The spawn point of each player of joining, in the same order
      */
-    private Queue<Player> removePlayers = new LinkedList<Player>();
+    private ArrayList<GridPoint> joiningSpawns = new ArrayList<>();
+
+    /**
+     * Number of players that got their handshake
+     */
+    private volatile long joinCount = 0;
+
+    /**
+     * Total nanoseconds from accept to first snapshot of every join
+     */
+    private volatile long joinLatencyTotal = 0;
+
+    /**
+     * Longest nanoseconds from accept to first snapshot
+     */
+    private volatile long joinLatencyMax = 0;
+
+    /**
+     * Nanoseconds from accept to first snapshot of the last join
+     */
+    private volatile long joinLatencyLast = 0;
+
+    /**
+     * String map from pather server main class,
+     * encoded once for the text handshake
+     */
+    private byte[] mapBytes;
+
+    /**
+     * The map encodings of the binary WELCOME, encoded once
+     * and shared by every handshake (see MapCodec)
+     */
+    private byte[] mapCells, mapCompact;
+
+    /**
+     * The game simulation producing the snapshots
+     */
+    private GameSimulation simulation;
+
+    /**
+     * Tick of the last snapshot sent
+     */
+    private int tick = -1;
+
+    /**
+     * The last snapshot sent and System.nanoTime() when it was sent
+     */
+    private WorldSnapshot lastSent;
+    private long lastSentAt;
+
+    /**
+     * Longest time without sending the state to the clients when it
+     * doesn't change, set with -Dpather.heartbeatMillis
+     */
+    private long heartbeatNanos = Long.getLong("pather.heartbeatMillis", 1000) * 1000000;
+
+    /**
+     * The thread running this sender
+     */
+    private volatile Thread thread;
+
+    /**
+     * Either the sender is parked, waiting for a change or the heartbeat
+     */
+    private volatile boolean idle = false;
+
+    /**
+     * The recent snapshots by tick, used as delta bases.
+     * A client that acknowledged a tick older than this
+     * history is sent a KEYFRAME instead of a DELTA
+     */
+    private WorldSnapshot[] history = new WorldSnapshot[256];
+
+    /**
+     * Ticks between two KEYFRAMEs to the same client,
+     * set with -Dpather.keyframeInterval
+     */
+    private int keyframeInterval = Integer.getInteger("pather.keyframeInterval", 200);
+
+    /**
+     * Radius in cells of the area of interest of version 3 clients,
+     * 0 sends every player, set with -Dpather.interestRadius
+     */
+    private double interestRadius = Double.parseDouble(System.getProperty("pather.interestRadius", "0"));
+
+    /**
+     * Most players in one area of interest, the nearest ones are kept,
+     * set with -Dpather.interestMaxPlayers
+     */
+    private int interestMaxPlayers = Integer.getInteger("pather.interestMaxPlayers", 64);
+
+    /**
+     * How often the farther players of an area of interest are sent,
+     * null to send them every tick (see UpdateTiers)
+     */
+    private UpdateTiers tiers = UpdateTiers.fromProperties();
+
+    /**
+     * Scratch buffer for per-client frames
+     */
+    private PacketBuffer frameBuffer = new PacketBuffer(1024);
+
+    /**
+     * Bytes queued during the current sync, for its flight recorder event
+     */
+    private long syncBytes;
+
+    /**
+     * Paces the ticks of the sender, -Dpather.sendRate ticks per second up to the
+     * tick rate (the default), lowered down to a quarter of it under sustained
+     * overload with -Dpather.adaptiveSendRate=true
+     */
+    private TickScheduler scheduler;
 
     @Override
     /*
      * Implementation method for being a Runnable type
-     * Runs at 200 iteration per second while run is true
+     * Runs at the scheduler's rate while run is true, parking
+     * whenever there is nothing new to send. Every tick ends
+     * in the scheduler, the ones after a wake up too, so their
+     * overruns count towards the adaptive rate
      */
     public void run() {
+        thread = Thread.currentThread();
         while (instance.isRunning()){
             try {
                 sync();
-                Thread.sleep(5); //200 tps (tick per second)
                 //remove or add player to prevent ConcurrentModificationException
                 updatePlayerList();
+                scheduler.await();
+                if (isIdle()) {
+                    idle = true;
+                    //a wake() between the check and the park makes the park return at once
+                    if (isIdle()) LockSupport.parkNanos(this, Math.max(0, lastSentAt + heartbeatNanos - System.nanoTime()));
+                    idle = false;
+                    //the time parked isn't part of the next tick
+                    scheduler.restart();
+                }
             } catch (InterruptedException e) {
                 e.printStackTrace();
             }
@@ -71,7 +197,19 @@ public class DataSender implements Runnable{
     DataSender(PatherServer instance){
         this.instance = instance;
         players = instance.getPlayersManager();
-        mapStr = instance.getMapStr();
+        simulation = instance.getSimulation();
+        mapBytes = instance.getMapStr().getBytes();
+        mapCells = instance.getMapCells();
+        mapCompact = instance.getMapCompact();
+
+        //a snapshot is sent once at most, so sending faster than the simulation sends nothing more
+        int tickRate = instance.getTickRate();
+        int sendRate = Integer.getInteger("pather.sendRate", tickRate);
+        if (sendRate > tickRate) {
+            System.out.println("The send rate " + sendRate + " is above the tick rate, sending at " + tickRate + " per second");
+            sendRate = tickRate;
+        }
+        scheduler = new TickScheduler("DataSender", sendRate, Boolean.getBoolean("pather.adaptiveSendRate"));
     }
 
     /**
@@ -79,68 +217,248 @@ public class DataSender implements Runnable{
      * players. Information include the location, status, name, id
      * and health of every single player. Also map information at
      * first packet
+     *
+     * The state of every player is captured and encoded once into
+     * a WorldSnapshot by the GameSimulation, each recipient then gets
+     * the same shared bytes, plus its own handshake header on its first
+     * packet. Nothing is sent until the simulation published a new
+     * snapshot captured after the last player was added or removed.
      */
     private void sync(){
+        WorldSnapshot snapshot = simulation.getLatest();
+        if (!isDue(snapshot)) return;
+        long start = System.nanoTime();
+        lastSent = snapshot;
+        lastSentAt = start;
+        FlightEvents.SyncEvent event = new FlightEvents.SyncEvent();
+        event.begin();
+        syncBytes = 0;
+        int joins = joining.size();
+        tick = snapshot.getTick();
+        history[tick % history.length] = snapshot;
+
         //Loop through every single player connected
-        for(UUID id : players.getPlayers()){
-            //get the player object
-            Player player = players.getPlayer(id);
-            String output = "";
-
-            /*
-            when the newly connected player uuidQueue queue isn't empty
-            and the current player's uuidQueue matches to the first uuidQueue
-            in the queue then send the map data as well as the uuidQueue
-            assigned for the player to the client.
-            */
-            if(!uuidQueue.isEmpty()&&player.getId().equals(uuidQueue.peek())){
-                Point randomLoc = instance.getRandomSpawnPoint();
-                output+= uuidQueue.poll();
-                output+="#";
-                output+=randomLoc.x+","+randomLoc.y;
-                output+="#";
-                output+=mapStr;
-                player.setX(randomLoc.x);
-                player.setY(randomLoc.y);
-                output+="#";
+        for (Player player : players.getPlayersList()) {
+            //clients don't get anything before their handshake
+            if (!player.isWelcomed()) continue;
+            if (player.isBinary()) {
+                sendBinary(player, snapshot);
+            } else {
+                send(player, snapshot.getTextLine());
             }
+        }
+
+        /*
+        every player added since the last snapshot, all at once, is told its
+        spawn location in its handshake. It was added at its spawn point, so
+        this snapshot already shows it there. Players that left meanwhile are skipped.
+        */
+        for (int i = 0; i < joining.size(); i++) {
+            Player player = joining.get(i);
+            if (players.getPlayer(player.getId()) != player) continue;
+            sendHandshake(player, joiningSpawns.get(i), snapshot);
+            recordJoin(player);
+        }
+        joining.clear();
+        joiningSpawns.clear();
+        ServerMetrics.SENDER_TICK.record(System.nanoTime() - start);
+        if (event.shouldCommit()) {
+            event.tick = tick;
+            event.players = players.size();
+            event.joins = joins;
+            event.bytes = syncBytes;
+            event.commit();
+        }
+    }
+
+    /**
+     * Getter for if a snapshot should be sent. It isn't when the
+     * state didn't change since the last one sent, unless a player
+     * is waiting for its handshake or the heartbeat is due
+     * @param snapshot WorldSnapshot latest one captured, or null
+     * @return boolean
+     */
+    private boolean isDue(WorldSnapshot snapshot){
+        if (snapshot == null || snapshot.getTick() == tick || snapshot.getVersion() != players.getVersion()) return false;
+        return !joining.isEmpty() || !snapshot.sameState(lastSent) || System.nanoTime() - lastSentAt >= heartbeatNanos;
+    }
+
+    /**
+     * Getter for if the sender has nothing to do until the
+     * state changes, a player joins or leaves or the heartbeat
+     * @return boolean
+     */
+    private boolean isIdle(){
+        return addPlayers.isEmpty() && removePlayers.isEmpty() && joining.isEmpty() && !isDue(simulation.getLatest());
+    }
+
+    /**
+     * Wakes the sender up if it is idle, can be called from any thread
+     */
+    void wake(){
+        Thread t = thread;
+        if (idle && t != null) LockSupport.unpark(t);
+    }
+
+    /**
+     * Records the time it took for the player to get
+     * its first snapshot since its connection was accepted
+     * @param player Player that just got its handshake
+     */
+    private void recordJoin(Player player){
+        long latency = System.nanoTime() - player.getAcceptedAt();
+        joinLatencyLast = latency;
+        joinLatencyTotal += latency;
+        if (latency > joinLatencyMax) joinLatencyMax = latency;
+        joinCount++;
+    }
 
-            /*
-             * Loop through every single player and update them with
-             * other player's information
-             *
-             * Data format:
-             * DIED/NORMAL|ATTACKING/NORMAL|DAMAGING/NORMAL|uuidQueue|playerName|PlayerTypeEnum|x|y|health
-             *
-             * % sign is used to differentiate multiple players, example:
-             * NORMAL|ATTACKING|NORMAL|b039d756-3377-11e6-ac61-9e71128cae77|Mark|ALPHA|650.0|100.0|100.0%NORMAL|NORMAL|DAMAING|cf2fccce-3377-11e6-ac61-9e71128cae77|Mango|BETA|75.0|15.0|100.0
-             */
-            for (UUID target : players.getPlayers()) {
-                //get target player object
-                Player targetPlayer = players.getPlayer(target);
-                String data = "";
-                //add information to data accordingly
-                if (!targetPlayer.isAlive()) data += "DIED|";
-                else data += "NORMAL|";
-                if (targetPlayer.isAttacking()) data += "ATTACKING|";
-                else data += "NORMAL|";
-                if (targetPlayer.isDamaging()&&targetPlayer.isAlive()) data += "DAMAGING|";
-                else data += "NORMAL|";
-                data += targetPlayer.getId().toString() + "|";
-                data += targetPlayer.getName() + "|";
-                data += targetPlayer.getType().getStr() + "|";
-                data += targetPlayer.getX() + "|";
-                data += targetPlayer.getY() + "|";
-                data += targetPlayer.getHealth();
-                //add data into the final output string
-                output += data;
-                output += "%";
+    /**
+     * Sends the join handshake followed by the snapshot.
+     * Text clients get the uuid, the spawn location and the map
+     * string in front of the state line, binary clients get their
+     * WELCOME frame followed by the whole roster.
+     * The map is queued as its own shared array, so it is never copied.
+     * @param player Player joining
+     * @param spawn GridPoint spawn location
+     * @param snapshot WorldSnapshot of this tick, captured after the
+     * player was added at its spawn location
+     */
+    private void sendHandshake(Player player, GridPoint spawn, WorldSnapshot snapshot){
+        player.setWelcomed(true);
+        OutboundQueue out = player.getOutbound();
+        frameBuffer.clear();
+        if (player.isBinary()) {
+            GameMap map = instance.getMap();
+            if (player.getProtocol() >= BinaryProtocol.VERSION_MAP_SEED) {
+                //the client regenerates the map from its seed
+                BinaryProtocol.writeWelcome(frameBuffer, player, spawn, map.getWidth(), map.getHeight(),
+                        instance.getMapAlgorithmId(), instance.getMapSeed(), instance.getMapChecksum(), null);
+            } else {
+                byte[] mapData = player.getProtocol() >= BinaryProtocol.VERSION_COMPACT_MAP ? mapCompact : mapCells;
+                BinaryProtocol.writeWelcome(frameBuffer, player, spawn, map.getWidth(), map.getHeight(), 0, 0, 0, mapData);
+                offer(out, frameBuffer.toByteArray());
+                offer(out, mapData);
+                frameBuffer.clear();
+            }
+            for (Player p : players.getPlayersList()) {
+                BinaryProtocol.writePlayerInfo(frameBuffer, p);
+            }
+            if (usesInterest(player)) {
+                InterestSet interest = player.getInterest();
+                interest.update(player, snapshot, players.getGrid(), interestRadius, interestMaxPlayers, null);
+                BinaryProtocol.writeInterest(frameBuffer, interest);
+                BinaryProtocol.writeKeyframe(frameBuffer, snapshot, interest);
+                player.setKeyframeTick(snapshot.getTick());
+            } else {
+                byte[] frame;
+                if (player.isDeltaSupported()) {
+                    frame = snapshot.getKeyframe();
+                    player.setKeyframeTick(snapshot.getTick());
+                } else {
+                    frame = snapshot.getBinaryFrame();
+                }
+                frameBuffer.put(frame, 0, frame.length);
             }
-            //sends the information to player
-            send(player, output);
+        } else {
+            String header = player.getIdString() + "#" + spawn.x + "," + spawn.y + "#";
+            offer(out, header.getBytes());
+            offer(out, mapBytes);
+            frameBuffer.putByte('#');
+            byte[] line = snapshot.getTextLine();
+            frameBuffer.put(line, 0, line.length);
         }
+        offer(out, frameBuffer.toByteArray());
+    }
+
+    /**
+     * Sends the state of this tick to a welcomed binary client.
+     * Version 1 clients get the full SNAPSHOT, newer clients get
+     * a DELTA against the last tick they acknowledged, or a KEYFRAME
+     * when it's time to resync or their base is no longer known.
+     * @param player Player
+     * @param snapshot WorldSnapshot of this tick
+     */
+    private void sendBinary(Player player, WorldSnapshot snapshot){
+        if (!player.isDeltaSupported()) {
+            send(player, snapshot.getBinaryFrame());
+            return;
+        }
+        if (usesInterest(player)) {
+            sendInterest(player, snapshot);
+            return;
+        }
+        WorldSnapshot base = getSnapshot(player.getAckedTick());
+        if (base == null || snapshot.getTick() - player.getKeyframeTick() >= keyframeInterval) {
+            send(player, snapshot.getKeyframe());
+            player.setKeyframeTick(snapshot.getTick());
+        } else {
+            send(player, snapshot.getDeltaFrame(base));
+        }
+    }
+
+    /**
+     * Sends the state of this tick to a client filtered by
+     * its area of interest. These frames depend on the client
+     * so, unlike the shared ones, they are encoded per client.
+     * A DELTA only carries the players due this tick by their
+     * distance tier, a KEYFRAME carries all of them. The INTEREST
+     * frame is queued apart from the state frame, which a newer
+     * one may replace if the client falls behind.
+     * @param player Player
+     * @param snapshot WorldSnapshot of this tick
+     */
+    private void sendInterest(Player player, WorldSnapshot snapshot){
+        InterestSet interest = player.getInterest();
+        WorldSnapshot base = getSnapshot(player.getAckedTick());
+        boolean keyframe = base == null || snapshot.getTick() - player.getKeyframeTick() >= keyframeInterval;
+        interest.update(player, snapshot, players.getGrid(), interestRadius, interestMaxPlayers, keyframe ? null : tiers);
+        if (interest.getEnteredCount() > 0 || interest.getLeftCount() > 0) {
+            //queued on its own and never dropped: the interest set already counts these as sent
+            frameBuffer.clear();
+            BinaryProtocol.writeInterest(frameBuffer, interest);
+            offer(player.getOutbound(), frameBuffer.toByteArray());
+        }
+        frameBuffer.clear();
+        if (keyframe) {
+            BinaryProtocol.writeKeyframe(frameBuffer, snapshot, interest);
+            player.setKeyframeTick(snapshot.getTick());
+        } else {
+            BinaryProtocol.writeDelta(frameBuffer, snapshot, base, interest);
+        }
+        send(player, frameBuffer.toByteArray());
+    }
+
+    /**
+     * Getter for if the client is sent only its area of interest
+     * @param player Player
+     * @return boolean
+     */
+    private boolean usesInterest(Player player){
+        return interestRadius > 0 && player.isInterestSupported();
     }
 
+    /**
+     * Getter for a recent snapshot
+     * @param tick integer
+     * @return WorldSnapshot or null if it is no longer in the history
+     */
+    private WorldSnapshot getSnapshot(int tick){
+        if (tick < 0 || tick > this.tick) return null;
+        WorldSnapshot snapshot = history[tick % history.length];
+        return snapshot != null && snapshot.getTick() == tick ? snapshot : null;
+    }
+
+    /**
+     * Sends the frames in the frameBuffer to every
+     * welcomed binary client
+     */
+    private void broadcastBinary(){
+        byte[] data = frameBuffer.toByteArray();
+        for (Player p : players.getPlayersList()) {
+            if (p.isBinary() && p.isWelcomed()) p.getOutbound().offer(data);
+        }
+    }
 
     /**
      * The purpose of this is to prevent ConcurrentModificationException
@@ -148,51 +466,145 @@ public class DataSender implements Runnable{
      * nothing is modifying the hashmap
      */
     private void updatePlayerList(){
+        FlightEvents.PlayerListEvent event = new FlightEvents.PlayerListEvent();
+        event.begin();
+        int added = 0, removed = 0;
         while (!addPlayers.isEmpty()){
             Player p = addPlayers.poll();
+            added++;
+            //placed before it is added, so no snapshot ever shows it anywhere else
+            GridPoint spawn = instance.getRandomSpawnPoint();
+            p.setX(spawn.x);
+            p.setY(spawn.y);
             players.addPlayer(p);
+            joining.add(p);
+            joiningSpawns.add(spawn);
+            //announce the new player to the binary clients
+            frameBuffer.clear();
+            BinaryProtocol.writePlayerInfo(frameBuffer, p);
+            broadcastBinary();
         }
         while (!removePlayers.isEmpty()){
-            players.removePlayer(removePlayers.poll().getId());
+            Player p = removePlayers.poll();
+            removed++;
+            players.removePlayer(p.getId());
+            //tell the binary clients before its id gets reused
+            frameBuffer.clear();
+            BinaryProtocol.writePlayerLeft(frameBuffer, p.getNetId());
+            broadcastBinary();
+        }
+        //most iterations change nothing, they aren't recorded
+        if (added + removed > 0 && event.shouldCommit()) {
+            event.added = added;
+            event.removed = removed;
+            event.players = players.size();
+            event.commit();
         }
     }
 
 
     /**
      * The purpose of this is to prevent ConcurrentModificationException
-     * add player to addPlayers queue to be added also send the uuid
+     * add player to addPlayers queue to be added, it gets its handshake
+     * with the first snapshot after it was added. Can be called from any thread
      * @param p Player
      */
     void addPlayer(Player p){
         addPlayers.add(p);
-        sendUUID(p.getId());
+        wake();
     }
 
     /**
      * The purpose of this is to prevent ConcurrentModificationException
-     * add player to removePlayers queue waiting to be removed
+     * add player to removePlayers queue waiting to be removed.
+     * Can be called from any thread
      * @param p Player
      */
     void removePlayer(Player p){
         removePlayers.add(p);
+        wake();
     }
 
     /**
-     * Appends the argument uuid to the
-     * uuid Queue
-     * @param id UUID
+     * Getter for the scheduler pacing the sender
+     * @return TickScheduler
      */
-    private void sendUUID(UUID id){
-        uuidQueue.add(id);
+    TickScheduler getScheduler(){
+        return scheduler;
     }
 
     /**
-     * Send player string information
+     * Getter for the number of players that got their handshake
+     * @return long
+     */
+    long getJoinCount(){
+        return joinCount;
+    }
+
+    /**
+     * Getter for the approximate number of players waiting
+     * to be added or to get their handshake
+     * @return integer
+     */
+    int getPendingJoins(){
+        return addPlayers.size() + joining.size();
+    }
+
+    /**
+     * Getter for the average time from accept to first snapshot
+     * @return long nanoseconds
+     */
+    long getAverageJoinLatency(){
+        long count = joinCount;
+        return count == 0 ? 0 : joinLatencyTotal / count;
+    }
+
+    /**
+     * Getter for the longest time from accept to first snapshot
+     * @return long nanoseconds
+     */
+    long getMaxJoinLatency(){
+        return joinLatencyMax;
+    }
+
+    /**
+     * Getter for the time from accept to first snapshot of the last join
+     * @return long nanoseconds
+     */
+    long getLastJoinLatency(){
+        return joinLatencyLast;
+    }
+
+    /**
+     * Queues a state frame for the player, it replaces
+     * the state frames the player didn't receive yet
      * @param p Player
-     * @param str String
+     * @param data byte[] shared encoded data, not modified
+     */
+    private void send(Player p, byte[] data){
+        if (p!=null) {
+            FlightEvents.SendEvent event = new FlightEvents.SendEvent();
+            event.begin();
+            OutboundQueue out = p.getOutbound();
+            out.offerState(data);
+            syncBytes += data.length;
+            if (event.shouldCommit()) {
+                event.player = p.getName();
+                event.bytes = data.length;
+                event.queueDepth = out.getDepth();
+                event.queueBytes = out.getBytes();
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Queues handshake or INTEREST data for the player, never dropped
+     * @param out OutboundQueue of the player
+     * @param data byte[] not modified afterwards
      */
-    private void send(Player p, String str){
-        if (p!=null)
-            p.getPrintStream().println(str);
+    private void offer(OutboundQueue out, byte[] data){
+        out.offer(data);
+        syncBytes += data.length;
     }
 }
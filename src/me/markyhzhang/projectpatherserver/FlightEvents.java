@@ -0,0 +1,170 @@
+package me.markyhzhang.projectpatherserver;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * @author Yi Han (Mark) Zhang
+ *
+ * This class holds the Java Flight Recorder events of the server,
+ * one per phase of a tick, so a recording shows where the time of
+ * a slow tick went. They are used as:
+ *
+ *   SyncEvent event = new SyncEvent();
+ *   event.begin();
+ *   ...
+ *   if (event.shouldCommit()) { event.players = ...; event.commit(); }
+ *
+ * Without a recording shouldCommit() is false and the JIT removes
+ * the event, so they cost next to nothing when JFR is off.
+ *
+ * The per tick events are on by default. Send and Decode happen for
+ * every packet, so they are off unless enabled in the recording
+ * settings (e.g. pather.Send#enabled=true in a .jfc file).
+ */
+final class FlightEvents {
+
+    /**
+     * No instances of this class
+     */
+    private FlightEvents(){
+    }
+
+    /**
+     * DataSender.sync, the state of one tick sent to every client
+     */
+    @Name("pather.Sync")
+    @Label("Sync")
+    @Category({"Pather", "Sender"})
+    @Description("State of one tick sent to every client and handshakes of the joining ones")
+    @StackTrace(false)
+    static final class SyncEvent extends Event {
+
+        @Label("Tick")
+        int tick;
+
+        @Label("Players")
+        int players;
+
+        @Label("Joins")
+        int joins;
+
+        @Label("Bytes Queued")
+        @DataAmount
+        long bytes;
+    }
+
+    /**
+     * DataSender.updatePlayerList, the players added and removed
+     */
+    @Name("pather.PlayerList")
+    @Label("Player List Update")
+    @Category({"Pather", "Sender"})
+    @StackTrace(false)
+    static final class PlayerListEvent extends Event {
+
+        @Label("Added")
+        int added;
+
+        @Label("Removed")
+        int removed;
+
+        @Label("Players")
+        int players;
+    }
+
+    /**
+     * DataSender.send, one state frame queued for one client
+     */
+    @Name("pather.Send")
+    @Label("Send")
+    @Category({"Pather", "Sender"})
+    @Enabled(false)
+    @StackTrace(false)
+    static final class SendEvent extends Event {
+
+        @Label("Player")
+        String player;
+
+        @Label("Bytes")
+        @DataAmount
+        int bytes;
+
+        @Label("Queue Depth")
+        int queueDepth;
+
+        @Label("Queued Bytes")
+        @DataAmount
+        int queueBytes;
+    }
+
+    /**
+     * ClientSession.handleLine and handleFrame, one packet from a client
+     */
+    @Name("pather.Decode")
+    @Label("Decode")
+    @Category({"Pather", "Network"})
+    @Enabled(false)
+    @StackTrace(false)
+    static final class DecodeEvent extends Event {
+
+        @Label("Protocol")
+        int protocol;
+
+        @Label("Packet")
+        String packet;
+
+        @Label("Bytes")
+        @DataAmount
+        int bytes;
+    }
+
+    /**
+     * GameSimulation collision check of every player
+     */
+    @Name("pather.Combat")
+    @Label("Combat Check")
+    @Category({"Pather", "Simulation"})
+    @StackTrace(false)
+    static final class CombatEvent extends Event {
+
+        @Label("Tick")
+        int tick;
+
+        @Label("Players")
+        int players;
+
+        @Label("Hits")
+        int hits;
+    }
+
+    /**
+     * MapGenerator.generate
+     */
+    @Name("pather.MapGeneration")
+    @Label("Map Generation")
+    @Category({"Pather", "Map"})
+    static final class MapGenerationEvent extends Event {
+
+        @Label("Width")
+        int width;
+
+        @Label("Height")
+        int height;
+
+        @Label("Algorithm")
+        String algorithm;
+
+        @Label("Tiled")
+        boolean tiled;
+
+        @Label("Cells")
+        long cells;
+    }
+}
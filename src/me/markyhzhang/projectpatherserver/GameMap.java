@@ -0,0 +1,155 @@
+package me.markyhzhang.projectpatherserver;
+
+/**
+ * @author Yi Han (Mark) Zhang
+ *
+ * This class is the game/maze map. The cells only hold values
+ * 0 to 9, so they are kept as one byte each in a flat array,
+ * column after column with a stride of height (cell (x, y) at
+ * x * height + y, the order of the old int[x][y] and of the map
+ * sent to the clients), plus one bit per cell telling if it can
+ * be walked on. That is 4 times less memory than int[][] and
+ * no pointer to follow per column.
+ *
+ * The map is filled once by the MapGenerator and never modified
+ * after, so it can be read by any thread.
+ */
+public final class GameMap {
+
+    /**
+     * Cell ID of the normal floor
+     */
+    public static final int FLOOR = 0;
+
+    /**
+     * Cell ID of the rooms
+     */
+    public static final int ROOM = 1;
+
+    /**
+     * Cell ID of the center block
+     */
+    public static final int CENTER = 2;
+
+    /**
+     * Cell ID of the border, 3 to 5 are the other walls
+     */
+    public static final int BORDER = 9;
+
+    /**
+     * Number of columns, along x
+     */
+    private final int width;
+
+    /**
+     * Number of cells in a column, along y, also the stride of a column
+     */
+    private final int height;
+
+    /**
+     * The cells column by column
+     */
+    private final byte[] cells;
+
+    /**
+     * One bit per cell, set if the cell can be walked on
+     */
+    private final long[] walkable;
+
+    /**
+     * The constructor of the map, takes over the cells
+     * @param width integer number of columns
+     * @param height integer number of cells in a column
+     * @param cells byte[] the cells column by column, not copied
+     */
+    GameMap(int width, int height, byte[] cells){
+        if (cells.length != width * height) throw new IllegalArgumentException("Map of " + width + "x" + height + " with " + cells.length + " cells");
+        this.width = width;
+        this.height = height;
+        this.cells = cells;
+        walkable = new long[(cells.length + 63) >> 6];
+        for (int i = 0; i < cells.length; i++) {
+            if (cells[i] <= CENTER) walkable[i >> 6] |= 1L << i;
+        }
+    }
+
+    /**
+     * Getter for the number of columns
+     * @return integer
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Getter for the number of cells in a column
+     * @return integer
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Index of a cell in the flat array
+     * @param x integer
+     * @param y integer
+     * @return integer
+     */
+    public int index(int x, int y) {
+        return x * height + y;
+    }
+
+    /**
+     * Getter for the ID of a cell
+     * @param x integer
+     * @param y integer
+     * @return integer
+     */
+    public int get(int x, int y) {
+        return cells[x * height + y];
+    }
+
+    /**
+     * Getter for if a cell can be walked on (floor, room or center)
+     * @param x integer
+     * @param y integer
+     * @return boolean false outside of the map
+     */
+    public boolean isWalkable(int x, int y) {
+        if (x < 0 || x >= width || y < 0 || y >= height) return false;
+        return isWalkable(x * height + y);
+    }
+
+    /**
+     * Getter for if a cell can be walked on
+     * @param index integer index of the cell
+     * @return boolean
+     */
+    public boolean isWalkable(int index) {
+        return (walkable[index >> 6] & 1L << index) != 0;
+    }
+
+    /**
+     * The neighbours of a cell that can be walked on, as bits:
+     * 1 for x - 1, 2 for x + 1, 4 for y - 1 and 8 for y + 1
+     * @param x integer
+     * @param y integer
+     * @return integer
+     */
+    public int walkableNeighbours(int x, int y) {
+        int mask = 0;
+        if (isWalkable(x - 1, y)) mask |= 1;
+        if (isWalkable(x + 1, y)) mask |= 2;
+        if (isWalkable(x, y - 1)) mask |= 4;
+        if (isWalkable(x, y + 1)) mask |= 8;
+        return mask;
+    }
+
+    /**
+     * Getter for the cells column by column
+     * @return byte[] shared, must not be modified
+     */
+    byte[] getCells() {
+        return cells;
+    }
+}
@@ -0,0 +1,237 @@
+package me.markyhzhang.projectpatherserver;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * @author Yi Han (Mark) Zhang
+ *
+ * This class is the authoritative simulation of the game. It
+ * runs on a single thread at a fixed tick rate: every tick it
+ * applies the latest input submitted for each player,
+ * runs the combat once for every player and captures a
+ * WorldSnapshot that is handed to the DataSender.
+ *
+ * Player state is only ever written by this thread, so how fast
+ * a client sends packets no longer changes how often combat is
+ * checked. A newer input replaces the one waiting for the tick, so
+ * neither the memory nor the cost of a tick depend on the input rate.
+ */
+class GameSimulation implements Runnable {
+
+    /**
+     * collision distance
+     */
+    static final double COLLISION_RADIUS = 1.5;
+
+    /**
+     * collision distance squared
+     */
+    static final double COLLISION_DIST = COLLISION_RADIUS*COLLISION_RADIUS;
+
+    /**
+     * Pather server instance
+     */
+    private PatherServer instance;
+
+    /**
+     * get players from the main class PatherServer
+     */
+    private PlayersManager players;
+
+    /**
+     * The players with an input waiting for the next tick, each
+     * once at most, written by any thread
+     */
+    private Queue<Player> pending = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Paces the ticks at the tick rate, the rate never changes
+     */
+    private final TickScheduler scheduler;
+
+    /**
+     * Number of the current tick
+     */
+    private int tick = 0;
+
+    /**
+     * The latest captured world state
+     */
+    private volatile WorldSnapshot latest;
+
+    /**
+     * The state of the players
+     */
+    private PlayerStore store;
+
+    /**
+     * Scratch array receiving the slots of the nearby players for the collision check
+     */
+    private int[] nearby = new int[16];
+
+    /**
+     * The constructor for this class
+     * @param instance PatherServer main class
+     * @param tickRate integer ticks per second
+     */
+    GameSimulation(PatherServer instance, int tickRate){
+        this.instance = instance;
+        players = instance.getPlayersManager();
+        store = players.getStore();
+        scheduler = new TickScheduler("GameSimulation", tickRate, false);
+    }
+
+    /**
+     * Submits an input for the next tick, replacing the one of the
+     * same player still waiting, can be called from any thread
+     * @param input PlayerInput
+     */
+    void submit(PlayerInput input){
+        //the player is queued by the input that found none waiting
+        if (input.player.swapPendingInput(input) == null) pending.add(input.player);
+    }
+
+    /**
+     * Getter for the latest captured world state
+     * @return WorldSnapshot or null before the first tick
+     */
+    WorldSnapshot getLatest(){
+        return latest;
+    }
+
+    /**
+     * Getter for the scheduler pacing the ticks
+     * @return TickScheduler
+     */
+    TickScheduler getScheduler(){
+        return scheduler;
+    }
+
+    /**
+     * Implementation method for being a Runnable type
+     * Runs a tick at every deadline of the scheduler
+     */
+    @Override
+    public void run() {
+        scheduler.restart();
+        while (instance.isRunning()) {
+            step();
+            try {
+                scheduler.await();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Runs one tick of the simulation
+     */
+    void step(){
+        long start = System.nanoTime();
+        //players can't be added or removed during the tick
+        synchronized (store) {
+            //apply the latest input of every player that sent one
+            Player player;
+            while ((player = pending.poll()) != null) {
+                PlayerInput input = player.swapPendingInput(null);
+                if (input != null) apply(input);
+            }
+
+            FlightEvents.CombatEvent event = new FlightEvents.CombatEvent();
+            event.begin();
+            int checked = 0, hits = 0;
+            int high = store.getHigh();
+            for (int slot = 0; slot < high; slot++) {
+                if (store.getPlayer(slot) == null) continue;
+                checked++;
+                if (checkCollision(slot)) hits++;
+            }
+            if (event.shouldCommit()) {
+                event.tick = tick + 1;
+                event.players = checked;
+                event.hits = hits;
+                event.commit();
+            }
+
+            WorldSnapshot previous = latest;
+            latest = new WorldSnapshot(++tick, players);
+            //an idle DataSender only needs to wake up for a new state
+            DataSender sender = instance.getDataSender();
+            if (sender != null && !latest.sameState(previous)) sender.wake();
+        }
+        ServerMetrics.SIMULATION_TICK.record(System.nanoTime() - start);
+    }
+
+    /**
+     * Applies one input to its player
+     * @param input PlayerInput
+     */
+    private void apply(PlayerInput input){
+        Player player = input.player;
+        //inputs sent before the player joined or after it left are meaningless
+        if (player.getSlot() < 0) return;
+        //update player location
+        player.setX(input.x);
+        player.setY(input.y);
+        players.movePlayer(player);
+        switch (input.type) {
+            case MOVE:
+                //set attacking state false
+                player.setAttacking(false);
+                break;
+            case ATTACK:
+                //set attacking state to true and read in double damage information
+                player.setAttacking(true);
+                player.setAttackDamage(input.damage);
+                break;
+        }
+    }
+
+    /**
+     * This method is handling player collision
+     * for attacking and damaging feature of the game
+     *
+     * It is set to that the collision distance to be 1.5 radius.
+     * This means that the player can be damaged or effectively attacking
+     * when they are 1.5 block away from other player
+     *
+     * Only the players in the SpatialGrid buckets around the player
+     * are checked, instead of every player on the server, reading
+     * their state straight from the PlayerStore arrays.
+     * @param slot integer PlayerStore slot of the player
+     * @return boolean if the player was hit
+     */
+    private boolean checkCollision(int slot){
+        //if player is dead
+        if (!store.isAlive(slot)) {
+            store.setFlag(slot, PlayerStore.DAMAGING, false);
+            return false;
+        }
+        boolean attackedFlag = false;
+        double thisX = store.getX(slot);
+        double thisY = store.getY(slot);
+        double health = store.getHealth(slot);
+        //loop through the players near this player
+        nearby = players.getGrid().collectNear(thisX, thisY, COLLISION_RADIUS, nearby);
+        for (int target : nearby) {
+            if (target < 0) break;
+            //if this player is other player and is attacking and is alive
+            if (target != slot && store.isAttacking(target) && store.isAlive(target)) {
+                //get location of both player
+                double dx = store.getX(target) - thisX;
+                double dy = store.getY(target) - thisY;
+                //using the circle formula see if they collide
+                if (dx * dx + dy * dy <= COLLISION_DIST) {
+                    health -= store.getAttackDamage(target);
+                    attackedFlag = true;
+                }
+            }
+        }
+        //set add on the current player
+        store.setHealth(slot, health);
+        store.setFlag(slot, PlayerStore.DAMAGING, attackedFlag);
+        return attackedFlag;
+    }
+}
@@ -0,0 +1,36 @@
+package me.markyhzhang.projectpatherserver;
+
+/**
+ * @author Yi Han (Mark) Zhang
+ *
+ * This class is a cell location on the map, used instead of
+ * java.awt.Point so the server doesn't load AWT when it runs
+ * without its window
+ */
+final class GridPoint {
+
+    /**
+     * The column of the cell
+     */
+    final int x;
+
+    /**
+     * The cell in the column
+     */
+    final int y;
+
+    /**
+     * The constructor of this point
+     * @param x integer
+     * @param y integer
+     */
+    GridPoint(int x, int y){
+        this.x = x;
+        this.y = y;
+    }
+
+    @Override
+    public String toString() {
+        return "(" + x + ", " + y + ")";
+    }
+}
@@ -0,0 +1,92 @@
+package me.markyhzhang.projectpatherserver;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * @author Yi Han (Mark) Zhang
+ *
+ * This is the entry point of the server without its windows, for
+ * machines without a display. It starts the simulation and the
+ * networking only, and never loads AWT or Swing.
+ *
+ * Usage: HeadlessServer [--config file] [--port n] [--mapSize n] [--tickRate n] [--key value]
+ *
+ * The config file is a properties file with the same keys. The
+ * arguments override it. Keys starting with "pather." (pather.network,
+ * pather.mapSeed, pather.mapDir...) are set as system properties, so
+ * a file can hold every setting the -D options give.
+ */
+public class HeadlessServer {
+
+    /**
+     * The main method of the headless server
+     * @param args String[]
+     */
+    public static void main(String[] args) {
+        //the defaults, same as the start window
+        Properties config = new Properties();
+        config.setProperty("port", "5000");
+        config.setProperty("mapSize", "30");
+
+        Properties overrides = new Properties();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                usage("Unexpected argument " + args[i]);
+                return;
+            }
+            overrides.setProperty(args[i].substring(2), args[++i]);
+        }
+        String file = overrides.getProperty("config");
+        if (file != null) {
+            try (InputStream in = new FileInputStream(file)) {
+                config.load(in);
+            } catch (IOException e) {
+                usage("Cannot read the config file " + file + ": " + e.getMessage());
+                return;
+            }
+        }
+        config.putAll(overrides);
+
+        //the server reads its other settings from the system properties
+        for (String key : config.stringPropertyNames()) {
+            if (key.startsWith("pather.")) System.setProperty(key, config.getProperty(key));
+        }
+        //without tickRate, pather.tickRate from the file, the arguments or -D
+        if (config.getProperty("tickRate") == null) {
+            config.setProperty("tickRate", System.getProperty("pather.tickRate", "60"));
+        }
+
+        int port, mapSize, tickRate;
+        try {
+            port = Integer.parseInt(config.getProperty("port").trim());
+            mapSize = Integer.parseInt(config.getProperty("mapSize").trim());
+            tickRate = Integer.parseInt(config.getProperty("tickRate").trim());
+        } catch (NumberFormatException e) {
+            usage("port, mapSize and tickRate must be integers");
+            return;
+        }
+        if (port < 1 || port > 65535 || mapSize < 10 || tickRate < 1) {
+            usage("port must be 1 ~ 65535, mapSize at least 10 and tickRate at least 1");
+            return;
+        }
+
+        PatherServer server = new PatherServer();
+        server.setTickRate(tickRate);
+        server.generateMap(mapSize);
+        server.start(port);
+        System.out.println("Headless server started on port " + port + " with a " + mapSize + "x" + mapSize + " map at " + tickRate + " ticks per second");
+    }
+
+    /**
+     * Prints an error and how to use the headless server
+     * @param error String
+     */
+    private static void usage(String error){
+        System.out.println(error);
+        System.out.println("Usage: HeadlessServer [--config file] [--port n] [--mapSize n] [--tickRate n] [--pather.key value]");
+        System.exit(1);
+    }
+}
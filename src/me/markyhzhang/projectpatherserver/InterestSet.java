@@ -0,0 +1,297 @@
+package me.markyhzhang.projectpatherserver;
+
+import java.util.Arrays;
+
+/**
+ * @author Yi Han (Mark) Zhang
+ *
+ * This class is the area of interest of one client: the set of
+ * players it currently receives. It is recomputed every tick from
+ * the SpatialGrid buckets around the client, keeping the players
+ * within the interest radius (the nearest ones if there are more
+ * than the per-client budget), and remembers when each player
+ * entered or left the set so deltas can be encoded against the
+ * tick the client acknowledged.
+ *
+ * With UpdateTiers, the farther players of the set are only due
+ * every few ticks. A player skipped at or after the base tick of a
+ * DELTA may be stale on the client, so it is sent in full once due.
+ *
+ * Only used by the DataSender thread.
+ */
+class InterestSet {
+
+    /**
+     * Tick each player (by small integer id) entered the set, -1 if not in the set
+     */
+    private int[] since = new int[0];
+
+    /**
+     * Tick each player (by small integer id) last left the set, -1 if never
+     */
+    private int[] leftTick = new int[0];
+
+    /**
+     * The Player each id belonged to when it entered the set
+     */
+    private Player[] owners = new Player[0];
+
+    /**
+     * Tick each player was last found in range, used to find who left
+     */
+    private int[] seenTick = new int[0];
+
+    /**
+     * Tick each player was last due to be sent, -1 if never
+     */
+    private int[] sentTick = new int[0];
+
+    /**
+     * Tick each player was last in the set but not due, -1 if never
+     */
+    private int[] skipTick = new int[0];
+
+    /**
+     * Tick of the last update
+     */
+    private int tick = -1;
+
+    /**
+     * Ids currently in the set
+     */
+    private int[] visible = new int[16];
+
+    /**
+     * Number of ids currently in the set
+     */
+    private int visibleCount = 0;
+
+    /**
+     * Ids that entered the set at the last update
+     */
+    private int[] entered = new int[16];
+
+    /**
+     * Number of ids that entered at the last update
+     */
+    private int enteredCount = 0;
+
+    /**
+     * Ids that left the set at the last update
+     */
+    private int[] left = new int[16];
+
+    /**
+     * Number of ids that left at the last update
+     */
+    private int leftCount = 0;
+
+    /**
+     * Scratch array for the slots of the nearby players of the grid
+     */
+    private int[] nearby = new int[64];
+
+    /**
+     * Scratch array of candidates sorted by distance, (float distance bits << 32) | id
+     */
+    private long[] candidates = new long[64];
+
+    /**
+     * Recomputes the set for this tick
+     * @param self Player the client's own player, always in the set
+     * @param snapshot WorldSnapshot of this tick
+     * @param grid SpatialGrid of the players
+     * @param radius double interest radius in cells
+     * @param maxPlayers integer most players in the set
+     * @param tiers UpdateTiers of the players due this tick, null for all of them
+     */
+    void update(Player self, WorldSnapshot snapshot, SpatialGrid grid, double radius, int maxPlayers, UpdateTiers tiers){
+        int tick = snapshot.getTick();
+        this.tick = tick;
+        int selfIndex = snapshot.indexOf(self.getNetId());
+        double cx = selfIndex >= 0 ? snapshot.getX(selfIndex) : self.getX();
+        double cy = selfIndex >= 0 ? snapshot.getY(selfIndex) : self.getY();
+        double radius2 = radius * radius;
+
+        //collect the players of the snapshot within the radius
+        nearby = grid.collectNear(cx, cy, radius, nearby);
+        int n = 0;
+        for (int id : nearby) {
+            if (id < 0) break;
+            int i = snapshot.indexOf(id);
+            if (i < 0) continue;
+            Player p = snapshot.getPlayer(i);
+            double dx = snapshot.getX(i) - cx;
+            double dy = snapshot.getY(i) - cy;
+            double dist2 = dx * dx + dy * dy;
+            if (p != self && dist2 > radius2) continue;
+            if (n == candidates.length) candidates = Arrays.copyOf(candidates, n * 2);
+            //self sorts first with distance 0
+            float key = p == self ? 0f : (float) dist2 + Float.MIN_VALUE;
+            candidates[n++] = ((long) Float.floatToIntBits(key) << 32) | id;
+        }
+        //keep the nearest ones when over the budget
+        if (n > maxPlayers) {
+            Arrays.sort(candidates, 0, n);
+            n = maxPlayers;
+        }
+
+        enteredCount = 0;
+        leftCount = 0;
+        for (int c = 0; c < n; c++) {
+            int id = (int) candidates[c];
+            Player p = snapshot.getPlayer(snapshot.indexOf(id));
+            ensure(id);
+            seenTick[id] = tick;
+            boolean due;
+            if (since[id] < 0 || owners[id] != p) {
+                since[id] = tick;
+                owners[id] = p;
+                entered = push(entered, enteredCount++, id);
+                due = true;
+            } else {
+                int interval = tiers == null ? 1 : tiers.intervalOf(Float.intBitsToFloat((int) (candidates[c] >>> 32)));
+                due = tick - sentTick[id] >= interval;
+            }
+            if (due) sentTick[id] = tick;
+            else skipTick[id] = tick;
+            //only keep the id, visible is rebuilt once the old ids are checked
+            candidates[c] = id;
+        }
+
+        //the ids that were in the set but weren't found this tick left it
+        for (int v = 0; v < visibleCount; v++) {
+            int id = visible[v];
+            if (seenTick[id] != tick) {
+                since[id] = -1;
+                owners[id] = null;
+                leftTick[id] = tick;
+                left = push(left, leftCount++, id);
+            }
+        }
+
+        if (visible.length < n) visible = new int[Math.max(n, visible.length * 2)];
+        for (int c = 0; c < n; c++) visible[c] = (int) candidates[c];
+        visibleCount = n;
+    }
+
+    /**
+     * Makes sure the per id arrays can hold the id
+     * @param id integer
+     */
+    private void ensure(int id){
+        if (id < since.length) return;
+        int size = Math.max(id + 1, since.length * 2);
+        int old = since.length;
+        since = Arrays.copyOf(since, size);
+        leftTick = Arrays.copyOf(leftTick, size);
+        seenTick = Arrays.copyOf(seenTick, size);
+        sentTick = Arrays.copyOf(sentTick, size);
+        skipTick = Arrays.copyOf(skipTick, size);
+        owners = Arrays.copyOf(owners, size);
+        Arrays.fill(since, old, size, -1);
+        Arrays.fill(leftTick, old, size, -1);
+        Arrays.fill(seenTick, old, size, -1);
+        Arrays.fill(sentTick, old, size, -1);
+        Arrays.fill(skipTick, old, size, -1);
+    }
+
+    /**
+     * Appends to an int array, growing it if needed
+     * @param array int[]
+     * @param index integer
+     * @param value integer
+     * @return int[] the array or its bigger copy
+     */
+    private static int[] push(int[] array, int index, int value){
+        if (index == array.length) array = Arrays.copyOf(array, index * 2);
+        array[index] = value;
+        return array;
+    }
+
+    /**
+     * Getter for if the player is in the set
+     * @param p Player
+     * @return boolean
+     */
+    boolean contains(Player p){
+        int id = p.getNetId();
+        return id >= 0 && id < since.length && since[id] >= 0 && owners[id] == p;
+    }
+
+    /**
+     * Getter for if the player entered the set after a tick,
+     * in which case the client didn't have it at that tick
+     * @param p Player in the set
+     * @param tick integer
+     * @return boolean
+     */
+    boolean enteredAfter(Player p, int tick){
+        return since[p.getNetId()] > tick;
+    }
+
+    /**
+     * Getter for if the player is due to be sent at the last update
+     * @param p Player in the set
+     * @return boolean
+     */
+    boolean isDue(Player p){
+        return sentTick[p.getNetId()] == tick;
+    }
+
+    /**
+     * Getter for if the player was in the set but not sent at
+     * or after a tick, in which case the client may not have its
+     * state of that tick
+     * @param p Player in the set
+     * @param tick integer
+     * @return boolean
+     */
+    boolean skippedSince(Player p, int tick){
+        return skipTick[p.getNetId()] >= tick;
+    }
+
+    /**
+     * Getter for if the id left the set after a tick
+     * @param netId integer
+     * @param tick integer
+     * @return boolean
+     */
+    boolean leftAfter(int netId, int tick){
+        return netId < leftTick.length && leftTick[netId] > tick;
+    }
+
+    /**
+     * Getter for the number of ids that entered at the last update
+     * @return integer
+     */
+    int getEnteredCount(){
+        return enteredCount;
+    }
+
+    /**
+     * Getter for the i-th id that entered at the last update
+     * @param i integer
+     * @return integer
+     */
+    int getEntered(int i){
+        return entered[i];
+    }
+
+    /**
+     * Getter for the number of ids that left at the last update
+     * @return integer
+     */
+    int getLeftCount(){
+        return leftCount;
+    }
+
+    /**
+     * Getter for the i-th id that left at the last update
+     * @param i integer
+     * @return integer
+     */
+    int getLeft(int i){
+        return left[i];
+    }
+}
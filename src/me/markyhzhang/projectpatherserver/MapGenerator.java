@@ -1,102 +1,209 @@
 package me.markyhzhang.projectpatherserver;
 
-import java.awt.Point;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * @author Yi Han (Mark) Zhang
  *
- * This is the main class of the server, it
- * implements runnable for the server socket
- * to accept players without blocking thread
+ * This class generates the maze of the game.
+ *
+ * The maze is carved in the flat byte array of the GameMap
+ * with the border already around it, without recursion or per-step allocation, so it
+ * scales to mazes of tens of millions of cells. The algorithm
+ * is chosen at startup with -Dpather.mapAlgorithm.
+ *
+ * In tiled mode (-Dpather.mapParallel=true) the maze is split in
+ * tiles of TILE_POINTS x TILE_POINTS points that are carved in
+ * parallel with fork/join, each with its own random generator,
+ * then joined by opening one wall between the tiles of a random
+ * spanning tree. Every tile is a perfect maze, so the stitched
+ * maze is a perfect maze too and every point is reachable. The
+ * tile size doesn't depend on the number of cores, so the map
+ * stays the same for a seed on every machine.
+ *
+ * The generation is deterministic: every random choice is
+ * drawn from a SeededRandom, in the order documented on the
+ * algorithms, so the same seed, size and algorithm always give
+ * the same map and clients can regenerate it locally.
  */
 class MapGenerator {
 
     /**
-     * The 2D integer array of the maze
+     * Enum for the maze generation algorithms, the id is sent to the clients
+     */
+    enum Algorithm {
+        //depth first search with an explicit stack
+        DFS(0),
+        //randomized Prim's algorithm
+        PRIM(1),
+        //randomized Kruskal's algorithm with union-find
+        KRUSKAL(2);
+
+        private final int id;
+        Algorithm(int id) {
+            this.id = id;
+        }
+        int getId(){
+            return id;
+        }
+    }
+
+    /**
+     * Bit set in the algorithm id sent to the clients when the maze is tiled
      */
-    private int[][] maze;
+    static final int TILED = 0x80;
 
     /**
-     * The row number of the map
+     * Number of points (even rows/columns) on a side of a tile
+     */
+    static final int TILE_POINTS = 128;
+
+    /**
+     * Row and column steps of the four directions: up, down, left, right
+     */
+    private static final int[] DR = {-2, 2, 0, 0};
+    private static final int[] DC = {0, 0, -2, 2};
+
+    /**
+     * The row number of the maze (without border)
      */
     private int row;
 
     /**
-     * The column number of the map
+     * The column number of the maze (without border)
      */
     private int col;
 
     /**
-     * A collection of direction point
-     * vectors in all four directions
+     * Number of cells in a row of the map with its border
      */
-    private ArrayList<Point> directions = new ArrayList<Point>() {{
-        add(new Point(-2,0));//up
-        add(new Point(2,0));//down
-        add(new Point(0,-2));//left
-        add(new Point(0,2));//right
-    }};
+    private int width;
+
+    /**
+     * The map with its border, row by row
+     */
+    private byte[] cells;
+
+    /**
+     * The algorithm used to carve the maze
+     */
+    private Algorithm algorithm;
+
+    /**
+     * If the maze is carved in parallel tiles
+     */
+    private boolean tiled;
+
+    /**
+     * The random generator of every choice
+     */
+    private SeededRandom random;
+
+    /**
+     * The flight event of the generation, created with the generator
+     * since the first event of the JVM takes a while to load JFR
+     */
+    private final FlightEvents.MapGenerationEvent event = new FlightEvents.MapGenerationEvent();
+
+    /**
+     * The constructor of this map generator using the DFS
+     * @param row integer
+     * @param col integer
+     * @param seed long seed of the random choices
+     */
+    MapGenerator(int row, int col, long seed){
+        this(row, col, seed, Algorithm.DFS);
+    }
 
     /**
      * The constructor of this map generator
      * @param row integer
      * @param col integer
+     * @param seed long seed of the random choices
+     * @param algorithm Algorithm carving the maze
      */
-    MapGenerator(int row, int col){
-        maze = new int[row-2][col-2];
+    MapGenerator(int row, int col, long seed, Algorithm algorithm){
+        this(row, col, seed, algorithm, false);
+    }
+
+    /**
+     * The constructor of this map generator
+     * @param row integer
+     * @param col integer
+     * @param seed long seed of the random choices
+     * @param algorithm Algorithm carving the maze or each tile
+     * @param tiled boolean true to carve the maze in parallel tiles
+     */
+    MapGenerator(int row, int col, long seed, Algorithm algorithm, boolean tiled){
+        this.tiled = tiled;
         this.row = row-2;
         this.col = col-2;
+        width = col;
+        this.algorithm = algorithm;
+        random = new SeededRandom(seed);
     }
 
     /**
-     * This method is the helper method of the
-     * DPS recursive map generation algorithm with
-     * room generation added to it.
+     * Generates the map
+     * @return GameMap the map
      */
-    int[][] generate() {
-
-        //Calculate the size of the map
-        int mapSize = row*col;
+    GameMap generate() {
+        event.begin();
+        GameMap map = new GameMap(row+2, width, generateCells());
+        if (event.shouldCommit()) {
+            event.width = map.getWidth();
+            event.height = map.getHeight();
+            event.algorithm = algorithm.name();
+            event.tiled = tiled;
+            event.cells = (long) map.getWidth() * map.getHeight();
+            event.commit();
+        }
+        return map;
+    }
 
-        //number counter for the map sectioning
-        int cnt = 0;
+    /**
+     * This method generates the maze with the chosen algorithm
+     * and adds the rooms, the center and the border to it.
+     *
+     * Random numbers are drawn in this order: every draw of the
+     * algorithm (see tile() when tiled), then for each of the
+     * row/4 rooms its x, y and size.
+     * @return byte[] the map row by row, cell (i, j) at i * (col + 2) + j
+     */
+    private byte[] generateCells() {
+        cells = new byte[(row+2) * width];
 
         /*
          * Initializes the map in to 3 sections with different
          * walls. 3 and 4 and 5 are all wall IDs.
+         * The border (ID 9) is added to all four edges of the square.
          */
-        for (int i = 0; i < row; i++) {
-            for (int j = 0; j < col; j++) {
+        long mapSize = (long) row*col;
+        long cnt = 0;
+        for (int i = 0; i < row+2; i++) {
+            for (int j = 0; j < width; j++) {
+                if (i==0 || i==row+1 || j==0 || j==width-1) {
+                    cells[i * width + j] = 9;
+                    continue;
+                }
                 if (cnt<mapSize/3)
-                    maze[i][j] = 3;
+                    cells[i * width + j] = 3;
                 else if (cnt<mapSize/3*2)
-                    maze[i][j] = 4;
+                    cells[i * width + j] = 4;
                 else
-                    maze[i][j] = 5;
+                    cells[i * width + j] = 5;
                 cnt++;
             }
         }
 
-        //Generate the maze with recursive method
-        dfs(0, 0);
-
-        /*
-         * Initializes the 2D map array to be both horizontally
-         * and vertically 2 bigger than the maze length for
-         * border generation.
-         */
-        int[][] map = new int[maze.length+2][maze[0].length+2];
-        for (int i = 0; i < map.length; i++) {
-            for (int j = 0; j < map[i].length; j++) {
-                //adds border (ID 9) to the map all four edges of the square
-                if (i==0 || i==map.length-1 || j==0 || j==map[0].length-1){
-                    map[i][j]=9;
-                }
-                //otherwise keep the original
-                else map[i][j]=maze[i-1][j-1];
-            }
+        //Carve the maze
+        if (tiled) {
+            tile();
+        } else {
+            new Carver(0, 0, row, col, random).carve();
         }
 
         /*
@@ -106,14 +213,14 @@ class MapGenerator {
         //generates row/4 rooms
         for (int i = 0; i < row/4; i++) {
             //the x and y are randomized with a ranange
-            int x = (int) (Math.random() * (row-6)) + 2;
-            int y = (int) (Math.random() * (col-5)) + 2;
+            int x = random.nextInt(row-6) + 2;
+            int y = random.nextInt(col-5) + 2;
             //size is randomized as well with a rande
-            int size = (int) (Math.random() * 4) + 2;
+            int size = random.nextInt(4) + 2;
             //build the room
             for (int j = x; j < x+size; j++) {
                 for (int k = y; k < y+size; k++) {
-                    map[j][k] = 1;
+                    cells[j * width + k] = 1;
                 }
             }
         }
@@ -127,67 +234,513 @@ class MapGenerator {
             //finds the center row and column and apply the center id of 2
             for (int i = (row+2-1)/2-1; i < (row+2-1)/2-1+4; i++) {
                 for (int j = (col+2-1)/2-1; j < (row+2-1)/2-1+4; j++) {
-                    map[i][j]=2;
+                    cells[i * width + j] = 2;
                 }
             }
         }else{//odd
             //finds the center row and column and apply the center id of 2
             for (int i = (row+2)/2-1; i < (row+2)/2-1+4; i++) {
                 for (int j = (col+2)/2-1; j < (row+2)/2-1+4; j++) {
-                    map[i][j]=2;
+                    cells[i * width + j] = 2;
                 }
             }
         }
 
         //return the fully generated map with rooms
-        return map;
+        return cells;
     }
 
     /**
-     * This method generates the maze/game map
-     * by using a Graph theory technique
-     * called Depth First Search (namely DFS). It works
-     * by applying the following logic:
-     *
-     * 1. looping through the four random directions.
-     * 2. check if the new point is with in the maze
-     *    and such that it hasn't been visited.
-     * 3. Set that point to be visited and the point
-     *    right before it. Since we want there to be
-     *    walls.
-     * 4. sleep for 0.025 second before doing the next
-     *    generation, so it won't generate based on the
-     *    computer's speed.
-     * 5. Recursively run this method on the new point
-     *    that the was just generated.
+     * Index in the cells of a maze location
+     * @param r integer maze row
+     * @param c integer maze column
+     * @return integer
+     */
+    private int index(int r, int c){
+        return (r+1) * width + c+1;
+    }
+
+    /**
+     * Carves the maze in tiles in parallel and stitches them.
      *
-     * @param r integer row
-     * @param c integer column
-     */
-    private void dfs(int r, int c) {
-        //Randomize direction
-        Collections.shuffle(directions);
-        Point[] randomDirections = directions.toArray(new Point[4]);
-
-        // Examine each direction
-        for (Point randomDirection : randomDirections) {
-            //gets the row and column direction vector
-            int rVect = randomDirection.x;
-            int cVect = randomDirection.y;
-
-            //creates the new point
-            int newR = r + rVect;
-            int newC = c + cVect;
-
-            //check if the new point is in the map and that it is not visited
-            if (newR >= 0 && newR < row && newC >= 0 && newC < col && maze[newR][newC] != 0) {
-                //set the two points in that direction to be visited
-                maze[newR][newC] = 0;
-                maze[r + rVect / 2][c + cVect / 2] = 0;
-
-                //recursively call the method on these new point
-                dfs(newR, newC);
+     * Random numbers are drawn in this order: one seed per tile,
+     * tiles row by row, then the stitching: the walls between two
+     * tiles next to each other, numbered tile * 2 for the right
+     * one and tile * 2 + 1 for the one below, are shuffled like
+     * the edges of kruskal(), then for every wall joining two
+     * tiles not connected yet, the point of the wall to open is
+     * picked with random.nextInt(points along the wall).
+     */
+    private void tile() {
+        int pointRows = (row + 1) / 2;
+        int pointCols = (col + 1) / 2;
+        int tileRows = (pointRows + TILE_POINTS - 1) / TILE_POINTS;
+        int tileCols = (pointCols + TILE_POINTS - 1) / TILE_POINTS;
+        int tiles = tileRows * tileCols;
+
+        long[] seeds = new long[tiles];
+        for (int t = 0; t < tiles; t++) seeds[t] = random.next();
+        ForkJoinPool.commonPool().invoke(new TileTask(0, tiles, tileCols, seeds));
+
+        //joins the tiles with a random spanning tree
+        int edgeCount = 0;
+        for (int t = 0; t < tiles; t++) {
+            if (t % tileCols + 1 < tileCols) edgeCount++;
+            if (t / tileCols + 1 < tileRows) edgeCount++;
+        }
+        int[] edges = new int[edgeCount];
+        int e = 0;
+        for (int t = 0; t < tiles; t++) {
+            if (t % tileCols + 1 < tileCols) edges[e++] = t * 2;
+            if (t / tileCols + 1 < tileRows) edges[e++] = t * 2 + 1;
+        }
+        shuffle(edges, random);
+
+        UnionFind sets = new UnionFind(tiles);
+        for (int edge : edges) {
+            int t = edge >> 1;
+            boolean down = (edge & 1) != 0;
+            if (!sets.union(t, down ? t + tileCols : t + 1)) continue;
+            int a = t / tileCols * TILE_POINTS;
+            int b = t % tileCols * TILE_POINTS;
+            if (down) {
+                //opens the wall row below the tile at one of its points
+                int point = b + random.nextInt(Math.min(TILE_POINTS, pointCols - b));
+                cells[index((a + TILE_POINTS) * 2 - 1, point * 2)] = 0;
+            } else {
+                //opens the wall column right of the tile at one of its points
+                int point = a + random.nextInt(Math.min(TILE_POINTS, pointRows - a));
+                cells[index(point * 2, (b + TILE_POINTS) * 2 - 1)] = 0;
+            }
+        }
+    }
+
+    /**
+     * Fork/join task carving a range of tiles
+     */
+    private class TileTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final int tileCols;
+        private final long[] seeds;
+
+        /**
+         * The constructor of this task
+         * @param from integer first tile
+         * @param to integer tile after the last one
+         * @param tileCols integer number of tiles in a row
+         * @param seeds long[] seed of each tile
+         */
+        TileTask(int from, int to, int tileCols, long[] seeds){
+            this.from = from;
+            this.to = to;
+            this.tileCols = tileCols;
+            this.seeds = seeds;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new TileTask(from, mid, tileCols, seeds), new TileTask(mid, to, tileCols, seeds));
+                return;
+            }
+            //the tiles own disjoint cells, the walls between them are left untouched
+            int r0 = from / tileCols * TILE_POINTS * 2;
+            int c0 = from % tileCols * TILE_POINTS * 2;
+            int r1 = Math.min(r0 + TILE_POINTS * 2 - 1, row);
+            int c1 = Math.min(c0 + TILE_POINTS * 2 - 1, col);
+            new Carver(r0, c0, r1, c1, new SeededRandom(seeds[from])).carve();
+            //a tile of a single point is never entered by the DFS
+            cells[index(r0, c0)] = 0;
+        }
+    }
+
+    /**
+     * Shuffles an array in place with Fisher-Yates: for i from the
+     * last down to 1 swap array[i] with array[random.nextInt(i + 1)]
+     * @param array int[]
+     * @param random SeededRandom
+     */
+    private static void shuffle(int[] array, SeededRandom random){
+        for (int i = array.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = array[i];
+            array[i] = array[j];
+            array[j] = tmp;
+        }
+    }
+
+    /**
+     * This class carves the maze inside a rectangle of maze rows
+     * and columns starting on a point, with its own random generator,
+     * so several rectangles can be carved at the same time
+     */
+    private class Carver {
+
+        /**
+         * First row and column of the rectangle, both even
+         */
+        private final int r0;
+        private final int c0;
+
+        /**
+         * Row and column after the rectangle
+         */
+        private final int r1;
+        private final int c1;
+
+        /**
+         * The random generator of the choices in the rectangle
+         */
+        private final SeededRandom random;
+
+        /**
+         * The frontier of prim(), points as (r - r0) * (c1 - c0) + c - c0
+         */
+        private int[] frontier;
+
+        /**
+         * Number of points in the frontier
+         */
+        private int frontierSize;
+
+        /**
+         * The constructor of this carver
+         * @param r0 integer
+         * @param c0 integer
+         * @param r1 integer
+         * @param c1 integer
+         * @param random SeededRandom
+         */
+        Carver(int r0, int c0, int r1, int c1, SeededRandom random){
+            this.r0 = r0;
+            this.c0 = c0;
+            this.r1 = r1;
+            this.c1 = c1;
+            this.random = random;
+        }
+
+        /**
+         * Carves the rectangle with the algorithm of the generator
+         */
+        void carve(){
+            switch (algorithm) {
+                case DFS:
+                    dfs();
+                    break;
+                case PRIM:
+                    prim();
+                    break;
+                case KRUSKAL:
+                    kruskal();
+                    break;
+            }
+        }
+
+        /**
+         * Getter for if a maze location is in the rectangle
+         * @param r integer
+         * @param c integer
+         * @return boolean
+         */
+        private boolean inside(int r, int c){
+            return r >= r0 && r < r1 && c >= c0 && c < c1;
+        }
+
+        /**
+         * This method generates the maze/game map
+         * by using a Graph theory technique
+         * called Depth First Search (namely DFS). It works
+         * by applying the following logic, starting at (r0, c0):
+         *
+         * 1. looping through the four random directions. They are
+         *    shuffled in place (keeping the order of the previous step)
+         *    with Fisher-Yates when a point is entered: for i from 3
+         *    down to 1 swap directions[i] with directions[random.nextInt(i + 1)].
+         * 2. check if the new point is with in the maze
+         *    and such that it hasn't been carved.
+         * 3. Set that point to be carved and the point
+         *    right before it. Since we want there to be
+         *    walls.
+         * 4. Enter the new point, and come back to the
+         *    remaining directions of this point once
+         *    the new point has no direction left.
+         *
+         * The points being visited are kept on an explicit stack
+         * instead of the call stack, so big mazes can't overflow it.
+         * Each entry is the point, its shuffled directions packed
+         * 2 bits each and the next direction to try.
+         */
+        private void dfs() {
+            //directions in their current shuffled order
+            int[] directions = {0, 1, 2, 3};
+            int[] stackR = new int[64];
+            int[] stackC = new int[64];
+            byte[] stackOrder = new byte[64];
+            byte[] stackNext = new byte[64];
+            int top = 0;
+            stackR[0] = r0;
+            stackC[0] = c0;
+            stackOrder[0] = shuffle(directions);
+            stackNext[0] = 0;
+
+            while (top >= 0) {
+                int next = stackNext[top];
+                if (next == 4) {
+                    //every direction was tried, go back
+                    top--;
+                    continue;
+                }
+                stackNext[top] = (byte) (next + 1);
+                int d = (stackOrder[top] >> (next * 2)) & 3;
+                int r = stackR[top];
+                int c = stackC[top];
+
+                //creates the new point
+                int newR = r + DR[d];
+                int newC = c + DC[d];
+
+                //check if the new point is in the maze and that it is not carved
+                if (inside(newR, newC) && cells[index(newR, newC)] != 0) {
+                    //set the two points in that direction to be carved
+                    cells[index(newR, newC)] = 0;
+                    cells[index(r + DR[d] / 2, c + DC[d] / 2)] = 0;
+
+                    //enter the new point
+                    if (++top == stackR.length) {
+                        int size = top * 2;
+                        stackR = Arrays.copyOf(stackR, size);
+                        stackC = Arrays.copyOf(stackC, size);
+                        stackOrder = Arrays.copyOf(stackOrder, size);
+                        stackNext = Arrays.copyOf(stackNext, size);
+                    }
+                    stackR[top] = newR;
+                    stackC[top] = newC;
+                    stackOrder[top] = shuffle(directions);
+                    stackNext[top] = 0;
+                }
+            }
+        }
+
+        /**
+         * Shuffles the directions in place with Fisher-Yates
+         * @param directions int[] the 4 directions
+         * @return byte the shuffled directions packed 2 bits each, first in the lowest bits
+         */
+        private byte shuffle(int[] directions){
+            MapGenerator.shuffle(directions, random);
+            return (byte) (directions[0] | directions[1] << 2 | directions[2] << 4 | directions[3] << 6);
+        }
+
+        /**
+         * This method generates the maze with the randomized Prim's
+         * algorithm. The points of the maze are the even rows and
+         * columns. Starting with (r0, c0) carved:
+         *
+         * 1. the points next to the carved ones are in the frontier,
+         *    added in the order up, down, left, right.
+         * 2. pick the frontier point at random.nextInt(frontier size),
+         *    the last point of the frontier takes its place.
+         * 3. among its carved neighbours, in the order up, down, left,
+         *    right, pick the one at random.nextInt(count) and carve
+         *    the point and the wall between them.
+         * 4. add the new neighbours of the point to the frontier and
+         *    repeat until the frontier is empty.
+         */
+        private void prim() {
+            int cols = c1 - c0;
+            BitSet inFrontier = new BitSet((r1 - r0) * cols);
+            frontier = new int[64];
+            frontierSize = 0;
+
+            cells[index(r0, c0)] = 0;
+            addFrontier(r0, c0, inFrontier);
+
+            while (frontierSize > 0) {
+                int k = random.nextInt(frontierSize);
+                int point = frontier[k];
+                frontier[k] = frontier[--frontierSize];
+                int r = r0 + point / cols;
+                int c = c0 + point % cols;
+
+                //count the carved neighbours
+                int count = 0;
+                for (int d = 0; d < 4; d++) {
+                    if (isCarved(r + DR[d], c + DC[d])) count++;
+                }
+                //connect to one of them
+                int pick = random.nextInt(count);
+                for (int d = 0; d < 4; d++) {
+                    if (isCarved(r + DR[d], c + DC[d]) && pick-- == 0) {
+                        cells[index(r + DR[d] / 2, c + DC[d] / 2)] = 0;
+                        break;
+                    }
+                }
+                cells[index(r, c)] = 0;
+                addFrontier(r, c, inFrontier);
+            }
+            frontier = null;
+        }
+
+        /**
+         * Adds the points next to a point that aren't carved
+         * nor in the frontier yet to the frontier
+         * @param r integer
+         * @param c integer
+         * @param inFrontier BitSet of the points ever added
+         */
+        private void addFrontier(int r, int c, BitSet inFrontier){
+            for (int d = 0; d < 4; d++) {
+                int newR = r + DR[d];
+                int newC = c + DC[d];
+                if (!inside(newR, newC)) continue;
+                int point = (newR - r0) * (c1 - c0) + newC - c0;
+                if (cells[index(newR, newC)] == 0 || inFrontier.get(point)) continue;
+                inFrontier.set(point);
+                if (frontierSize == frontier.length) frontier = Arrays.copyOf(frontier, frontierSize * 2);
+                frontier[frontierSize++] = point;
+            }
+        }
+
+        /**
+         * Getter for if a maze location is in the rectangle and carved
+         * @param r integer
+         * @param c integer
+         * @return boolean
+         */
+        private boolean isCarved(int r, int c){
+            return inside(r, c) && cells[index(r, c)] == 0;
+        }
+
+        /**
+         * This method generates the maze with the randomized Kruskal's
+         * algorithm. The points of the maze are the even rows and
+         * columns, all carved, and the walls between two points next
+         * to each other are the edges, numbered point * 2 for the
+         * right one and point * 2 + 1 for the one below, where the
+         * points are numbered row by row.
+         *
+         * The edges are shuffled with Fisher-Yates (for i from the
+         * last down to 1 swap edges[i] with edges[random.nextInt(i + 1)])
+         * and, in that order, every wall between two points that
+         * aren't connected yet is carved. The connected points are
+         * tracked with a union-find.
+         */
+        private void kruskal() {
+            int pointRows = (r1 - r0 + 1) / 2;
+            int pointCols = (c1 - c0 + 1) / 2;
+            int points = pointRows * pointCols;
+
+            //carve every point and list the walls between them
+            int edgeCount = 0;
+            for (int a = 0; a < pointRows; a++) {
+                for (int b = 0; b < pointCols; b++) {
+                    cells[index(r0 + a * 2, c0 + b * 2)] = 0;
+                    if (b + 1 < pointCols) edgeCount++;
+                    if (a + 1 < pointRows) edgeCount++;
+                }
+            }
+            int[] edges = new int[edgeCount];
+            int e = 0;
+            for (int p = 0; p < points; p++) {
+                if (p % pointCols + 1 < pointCols) edges[e++] = p * 2;
+                if (p / pointCols + 1 < pointRows) edges[e++] = p * 2 + 1;
+            }
+            MapGenerator.shuffle(edges, random);
+
+            UnionFind sets = new UnionFind(points);
+            for (int edge : edges) {
+                int p = edge >> 1;
+                boolean down = (edge & 1) != 0;
+                int q = down ? p + pointCols : p + 1;
+                if (sets.union(p, q)) {
+                    int r = r0 + (p / pointCols) * 2;
+                    int c = c0 + (p % pointCols) * 2;
+                    cells[index(down ? r + 1 : r, down ? c : c + 1)] = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Getter for the algorithm carving the maze
+     * @return Algorithm
+     */
+    Algorithm getAlgorithm(){
+        return algorithm;
+    }
+
+    /**
+     * Getter for the id of the algorithm sent to the clients,
+     * with the TILED bit set when the maze is tiled
+     * @return integer
+     */
+    int getAlgorithmId(){
+        return algorithmId(algorithm, tiled);
+    }
+
+    /**
+     * The id sent to the clients of an algorithm
+     * @param algorithm Algorithm
+     * @param tiled boolean true if the maze is tiled
+     * @return integer
+     */
+    static int algorithmId(Algorithm algorithm, boolean tiled){
+        return tiled ? algorithm.getId() | TILED : algorithm.getId();
+    }
+
+    /**
+     * Disjoint sets of integers on primitive arrays
+     * with union by rank and path halving
+     */
+    private static final class UnionFind {
+
+        /**
+         * The parent of each element, itself for the roots
+         */
+        private final int[] parent;
+
+        /**
+         * Upper bound of the height of each root
+         */
+        private final byte[] rank;
+
+        UnionFind(int size){
+            parent = new int[size];
+            rank = new byte[size];
+            for (int i = 0; i < size; i++) parent[i] = i;
+        }
+
+        int find(int x){
+            while (parent[x] != x) {
+                parent[x] = parent[parent[x]];
+                x = parent[x];
+            }
+            return x;
+        }
+
+        /**
+         * Merges the sets of two elements
+         * @param a integer
+         * @param b integer
+         * @return boolean false if they were already in the same set
+         */
+        boolean union(int a, int b){
+            a = find(a);
+            b = find(b);
+            if (a == b) return false;
+            if (rank[a] < rank[b]) {
+                int tmp = a;
+                a = b;
+                b = tmp;
             }
+            parent[b] = a;
+            if (rank[a] == rank[b]) rank[a]++;
+            return true;
         }
     }
 }
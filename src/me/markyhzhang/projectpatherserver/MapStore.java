@@ -0,0 +1,185 @@
+package me.markyhzhang.projectpatherserver;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+/**
+ * @author Yi Han (Mark) Zhang
+ *
+ * This class keeps the generated maps in a directory so the
+ * server can start on a map it already generated without
+ * generating it again. The maps are found by their size,
+ * algorithm id and seed, and read back through a read only
+ * MappedByteBuffer: the cells are copied out of the page cache
+ * in one go instead of being carved.
+ *
+ * File format (big endian):
+ * - i32 MAGIC, u16 FORMAT
+ * - i32 width, i32 height, u8 algorithm id, i64 seed, i32 CRC32 of the cells
+ * - i32 n, n * (i32 x, i32 y) spawning points
+ * - i32 n, n bytes of compact map (see MapCodec)
+ * - width * height bytes of cells, column by column
+ *
+ * A map is written to a temporary file first and moved in place,
+ * so a server never reads a half written map.
+ */
+final class MapStore {
+
+    /**
+     * First 4 bytes of a map file, "PMAP"
+     */
+    static final int MAGIC = 0x504D4150;
+
+    /**
+     * Version of the file format
+     */
+    static final int FORMAT = 1;
+
+    /**
+     * The directory of the maps
+     */
+    private final File dir;
+
+    /**
+     * A map read from or written to the store
+     */
+    static final class Entry {
+
+        final GameMap map;
+        final int algorithmId;
+        final long seed;
+        final int checksum;
+        final ArrayList<GridPoint> spawningPoints;
+        final byte[] compact;
+
+        /**
+         * The constructor of this entry
+         * @param map GameMap
+         * @param algorithmId integer see MapGenerator.getAlgorithmId
+         * @param seed long
+         * @param checksum integer CRC32 of the cells
+         * @param spawningPoints ArrayList of GridPoint
+         * @param compact byte[] the compact map
+         */
+        Entry(GameMap map, int algorithmId, long seed, int checksum, ArrayList<GridPoint> spawningPoints, byte[] compact){
+            this.map = map;
+            this.algorithmId = algorithmId;
+            this.seed = seed;
+            this.checksum = checksum;
+            this.spawningPoints = spawningPoints;
+            this.compact = compact;
+        }
+    }
+
+    /**
+     * The constructor of this store
+     * @param dir File directory of the maps, created if needed
+     */
+    MapStore(File dir){
+        this.dir = dir;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            System.out.println("Cannot create the map directory " + dir);
+        }
+    }
+
+    /**
+     * The file of a map
+     * @param size integer size chosen on the server
+     * @param algorithmId integer
+     * @param seed long
+     * @return File
+     */
+    File fileOf(int size, int algorithmId, long seed){
+        return new File(dir, String.format("map-%d-%d-%016x.pmap", size, algorithmId, seed));
+    }
+
+    /**
+     * Loads a map if it is in the store
+     * @param size integer size chosen on the server
+     * @param algorithmId integer
+     * @param seed long
+     * @return Entry or null if it isn't stored or can't be read
+     */
+    Entry load(int size, int algorithmId, long seed){
+        File file = fileOf(size, algorithmId, seed);
+        if (!file.isFile()) return null;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.getInt() != MAGIC || in.getShort() != FORMAT) throw new IOException("Not a map file");
+            int width = in.getInt();
+            int height = in.getInt();
+            int storedAlgorithm = in.get() & 0xFF;
+            long storedSeed = in.getLong();
+            int checksum = in.getInt();
+            if (storedAlgorithm != algorithmId || storedSeed != seed || width != size || height != size) {
+                throw new IOException("Map of another size, algorithm or seed");
+            }
+
+            int spawnCount = in.getInt();
+            ArrayList<GridPoint> spawningPoints = new ArrayList<>(spawnCount);
+            for (int i = 0; i < spawnCount; i++) spawningPoints.add(new GridPoint(in.getInt(), in.getInt()));
+
+            byte[] compact = new byte[in.getInt()];
+            in.get(compact);
+            byte[] cells = new byte[width * height];
+            in.get(cells);
+
+            //a corrupted file is regenerated
+            CRC32 crc = new CRC32();
+            crc.update(cells);
+            if ((int) crc.getValue() != checksum) throw new IOException("Checksum mismatch");
+
+            return new Entry(new GameMap(width, height, cells), algorithmId, seed, checksum, spawningPoints, compact);
+        } catch (Exception e) {
+            System.out.println("Cannot load the map " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Saves a map in the store, replacing the one with
+     * the same size, algorithm and seed
+     * @param size integer size chosen on the server
+     * @param entry Entry
+     */
+    void save(int size, Entry entry){
+        File file = fileOf(size, entry.algorithmId, entry.seed);
+        File tmp = new File(dir, file.getName() + ".tmp");
+        GameMap map = entry.map;
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeShort(FORMAT);
+                out.writeInt(map.getWidth());
+                out.writeInt(map.getHeight());
+                out.writeByte(entry.algorithmId);
+                out.writeLong(entry.seed);
+                out.writeInt(entry.checksum);
+                out.writeInt(entry.spawningPoints.size());
+                for (GridPoint p : entry.spawningPoints) {
+                    out.writeInt(p.x);
+                    out.writeInt(p.y);
+                }
+                out.writeInt(entry.compact.length);
+                out.write(entry.compact);
+                out.write(map.getCells());
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.println("Cannot save the map " + file);
+            e.printStackTrace();
+            tmp.delete();
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package me.markyhzhang.projectpatherserver;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ReflectionException;
+import javax.management.RuntimeOperationsException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * @author Yi Han (Mark) Zhang
+ *
+ * This class is a registry of named metrics: counters, histograms
+ * of durations and gauges read on demand. Recording a value is
+ * allocation free and lock free, so it can be done from the tick
+ * loops and the I/O threads.
+ *
+ * Every interval the sampler thread turns the counters into rates
+ * per second and takes the percentiles of what the histograms
+ * recorded since the last interval. The results are read by the
+ * text endpoint and the JMX bean.
+ */
+final class MetricsRegistry {
+
+    /**
+     * A count that only goes up
+     */
+    static final class Counter {
+
+        private final LongAdder total = new LongAdder();
+        private long lastTotal;
+        private volatile double rate;
+
+        /**
+         * Adds to the counter
+         * @param n long
+         */
+        void add(long n){
+            total.add(n);
+        }
+
+        /**
+         * Adds one to the counter
+         */
+        void increment(){
+            total.increment();
+        }
+
+        /**
+         * Getter for the total since the start
+         * @return long
+         */
+        long getTotal(){
+            return total.sum();
+        }
+
+        /**
+         * Getter for the rate per second over the last interval
+         * @return double
+         */
+        double getRate(){
+            return rate;
+        }
+
+        private void sample(double seconds){
+            long now = total.sum();
+            rate = (now - lastTotal) / seconds;
+            lastTotal = now;
+        }
+    }
+
+    /**
+     * A histogram of durations in nanoseconds. The buckets have
+     * 8 steps per power of two, so a percentile is within 12.5%
+     * of the exact value.
+     */
+    static final class Histogram {
+
+        private static final int SUB_BITS = 3;
+        private final AtomicLongArray buckets = new AtomicLongArray(64 << SUB_BITS);
+        private final AtomicLong max = new AtomicLong();
+        private final LongAdder total = new LongAdder();
+
+        /**
+         * Counts of the last interval, only used by the sampler
+         */
+        private final long[] interval = new long[64 << SUB_BITS];
+
+        private volatile long lastCount, lastP50, lastP99, lastMax;
+
+        /**
+         * Records a duration
+         * @param nanos long
+         */
+        void record(long nanos){
+            if (nanos < 0) nanos = 0;
+            buckets.incrementAndGet(index(nanos));
+            total.increment();
+            long m;
+            while (nanos > (m = max.get()) && !max.compareAndSet(m, nanos)) {
+                //another thread raised the max meanwhile, compare again
+            }
+        }
+
+        /**
+         * Bucket of a value
+         * @param v long
+         * @return integer
+         */
+        private static int index(long v){
+            if (v < (1 << SUB_BITS)) return (int) v;
+            int exp = 63 - Long.numberOfLeadingZeros(v);
+            int sub = (int) (v >>> (exp - SUB_BITS)) & ((1 << SUB_BITS) - 1);
+            return ((exp - SUB_BITS + 1) << SUB_BITS) | sub;
+        }
+
+        /**
+         * Highest value of a bucket
+         * @param index integer
+         * @return long
+         */
+        private static long upperBound(int index){
+            if (index < (1 << SUB_BITS)) return index;
+            int exp = (index >> SUB_BITS) + SUB_BITS - 1;
+            long lower = (long) ((1 << SUB_BITS) | (index & ((1 << SUB_BITS) - 1))) << (exp - SUB_BITS);
+            return lower + (1L << (exp - SUB_BITS)) - 1;
+        }
+
+        private void sample(){
+            long count = 0;
+            for (int i = 0; i < interval.length; i++) {
+                interval[i] = buckets.getAndSet(i, 0);
+                count += interval[i];
+            }
+            long m = max.getAndSet(0);
+            lastP50 = percentile(count, 50);
+            lastP99 = percentile(count, 99);
+            lastMax = count == 0 ? 0 : m;
+            lastCount = count;
+        }
+
+        private long percentile(long count, double p){
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(count * p / 100));
+            long seen = 0;
+            for (int i = 0; i < interval.length; i++) {
+                seen += interval[i];
+                if (seen >= rank) return upperBound(i);
+            }
+            return 0;
+        }
+
+        /**
+         * Getter for the number of values since the start
+         * @return long
+         */
+        long getTotal(){
+            return total.sum();
+        }
+
+        long getCount(){
+            return lastCount;
+        }
+
+        long getP50(){
+            return lastP50;
+        }
+
+        long getP99(){
+            return lastP99;
+        }
+
+        long getMax(){
+            return lastMax;
+        }
+    }
+
+    /**
+     * The metrics by name, in registration order
+     */
+    private final Map<String, Counter> counters = new LinkedHashMap<>();
+    private final Map<String, Histogram> histograms = new LinkedHashMap<>();
+    private final Map<String, LongSupplier> gauges = new LinkedHashMap<>();
+
+    /**
+     * Seconds between two samples
+     */
+    private final int intervalSeconds;
+
+    /**
+     * The constructor of this registry
+     * @param intervalSeconds integer seconds between two samples
+     */
+    MetricsRegistry(int intervalSeconds){
+        this.intervalSeconds = Math.max(1, intervalSeconds);
+    }
+
+    /**
+     * Registers a counter
+     * @param name String
+     * @return Counter
+     */
+    synchronized Counter counter(String name){
+        return counters.computeIfAbsent(name, n -> new Counter());
+    }
+
+    /**
+     * Registers a histogram of durations
+     * @param name String
+     * @return Histogram
+     */
+    synchronized Histogram histogram(String name){
+        return histograms.computeIfAbsent(name, n -> new Histogram());
+    }
+
+    /**
+     * Registers a gauge, replacing the one with the same name
+     * @param name String
+     * @param value LongSupplier read when the metrics are read
+     */
+    synchronized void gauge(String name, LongSupplier value){
+        gauges.put(name, value);
+    }
+
+    /**
+     * Starts the sampler thread
+     */
+    void startSampler(){
+        Thread thread = new Thread(() -> {
+            long last = System.nanoTime();
+            while (true) {
+                try {
+                    Thread.sleep(intervalSeconds * 1000L);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long now = System.nanoTime();
+                sample((now - last) / 1e9);
+                last = now;
+            }
+        }, "Metrics");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private synchronized void sample(double seconds){
+        for (Counter c : counters.values()) c.sample(seconds);
+        for (Histogram h : histograms.values()) h.sample();
+    }
+
+    /**
+     * Every value of the registry by name, the counters as their total
+     * and their rate, the histograms in milliseconds over the last interval
+     * @return Map of the values in order
+     */
+    synchronized Map<String, Number> values(){
+        Map<String, Number> values = new LinkedHashMap<>();
+        for (Map.Entry<String, Counter> e : counters.entrySet()) {
+            values.put(e.getKey() + ".total", e.getValue().getTotal());
+            values.put(e.getKey() + ".perSecond", Math.round(e.getValue().getRate() * 10) / 10.0);
+        }
+        for (Map.Entry<String, Histogram> e : histograms.entrySet()) {
+            Histogram h = e.getValue();
+            values.put(e.getKey() + ".count", h.getCount());
+            values.put(e.getKey() + ".p50.ms", millis(h.getP50()));
+            values.put(e.getKey() + ".p99.ms", millis(h.getP99()));
+            values.put(e.getKey() + ".max.ms", millis(h.getMax()));
+        }
+        for (Map.Entry<String, LongSupplier> e : gauges.entrySet()) {
+            values.put(e.getKey(), e.getValue().getAsLong());
+        }
+        return values;
+    }
+
+    /**
+     * Nanoseconds as milliseconds rounded to the microsecond
+     * @param nanos long
+     * @return double
+     */
+    private static double millis(long nanos){
+        return Math.round(nanos / 1e3) / 1e3;
+    }
+
+    /**
+     * Writes every value as "name value" lines
+     * @param out StringBuilder
+     */
+    void writeText(StringBuilder out){
+        out.append("# interval ").append(intervalSeconds).append(" s\n");
+        for (Map.Entry<String, Number> e : values().entrySet()) {
+            out.append(e.getKey()).append(' ').append(e.getValue()).append('\n');
+        }
+    }
+
+    /**
+     * The JMX view of the registry, one read only attribute per value
+     * @return DynamicMBean
+     */
+    DynamicMBean toMBean(){
+        return new DynamicMBean() {
+            @Override
+            public Object getAttribute(String attribute) throws AttributeNotFoundException {
+                Number value = values().get(attribute);
+                if (value == null) throw new AttributeNotFoundException(attribute);
+                return value;
+            }
+
+            @Override
+            public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+                throw new AttributeNotFoundException("Read only " + attribute.getName());
+            }
+
+            @Override
+            public AttributeList getAttributes(String[] attributes) {
+                Map<String, Number> values = values();
+                AttributeList list = new AttributeList();
+                for (String name : attributes) {
+                    if (values.containsKey(name)) list.add(new Attribute(name, values.get(name)));
+                }
+                return list;
+            }
+
+            @Override
+            public AttributeList setAttributes(AttributeList attributes) {
+                //every attribute is read only, refused like setAttribute does
+                if (attributes.isEmpty()) return new AttributeList();
+                ArrayList<String> names = new ArrayList<>();
+                for (Attribute attribute : attributes.asList()) names.add(attribute.getName());
+                throw new RuntimeOperationsException(new IllegalArgumentException("Read only " + String.join(", ", names)));
+            }
+
+            @Override
+            public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+                //the bean has no operations
+                throw new ReflectionException(new NoSuchMethodException(actionName));
+            }
+
+            @Override
+            public MBeanInfo getMBeanInfo() {
+                ArrayList<MBeanAttributeInfo> attributes = new ArrayList<>();
+                for (Map.Entry<String, Number> e : values().entrySet()) {
+                    attributes.add(new MBeanAttributeInfo(e.getKey(), e.getValue().getClass().getName(), e.getKey(), true, false, false));
+                }
+                return new MBeanInfo(MetricsRegistry.class.getName(), "PatherServer metrics",
+                        attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[0], null);
+            }
+        };
+    }
+}
@@ -0,0 +1,260 @@
+package me.markyhzhang.projectpatherserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @author Yi Han (Mark) Zhang
+ *
+ * This class is a single non-blocking client connection
+ * owned by a NioWorker. It splits the incoming bytes into
+ * lines or binary frames (chosen by the first byte, see
+ * BinaryProtocol) for the ClientSession and exposes an
+ * OutboundQueue whose data is written by the worker thread,
+ * so the DataSender never blocks on a socket.
+ */
+class NioConnection {
+
+    /**
+     * The worker owning this connection
+     */
+    private NioWorker worker;
+
+    /**
+     * The channel of the client
+     */
+    private SocketChannel channel;
+
+    /**
+     * The selection key of the channel
+     */
+    private SelectionKey key;
+
+    /**
+     * Pather server instance
+     */
+    private PatherServer instance;
+
+    /**
+     * The session decoding the packets of this client, null until the first byte
+     */
+    private ClientSession session;
+
+    /**
+     * The queue handed to the session
+     */
+    private OutboundQueue out;
+
+    /**
+     * Either the client speaks the binary protocol
+     */
+    private boolean binary;
+
+    /**
+     * Bytes of the line or frames currently being received
+     */
+    private byte[] line = new byte[256];
+
+    /**
+     * Length of the line or frames currently being received
+     */
+    private int lineLength = 0;
+
+    /**
+     * Data taken from the queue that the socket didn't fully accept yet
+     */
+    private ByteBuffer writing;
+
+    /**
+     * System.nanoTime() when the connection was registered
+     */
+    private long acceptedAt = System.nanoTime();
+
+    /**
+     * Either this connection is closed or not
+     */
+    private boolean closed = false;
+
+    /**
+     * The constructor for this class
+     * @param instance PatherServer main class
+     * @param worker NioWorker owning the connection
+     * @param channel SocketChannel of the client
+     * @param key SelectionKey of the channel
+     */
+    NioConnection(PatherServer instance, NioWorker worker, SocketChannel channel, SelectionKey key){
+        this.instance = instance;
+        this.worker = worker;
+        this.channel = channel;
+        this.key = key;
+        out = new OutboundQueue(() -> worker.requestFlush(this));
+    }
+
+    /**
+     * Reads whatever is available from the channel and hands
+     * every complete line or frame to the session. Only called by the worker.
+     * @param buffer ByteBuffer shared read buffer of the worker
+     * @throws IOException if the connection is lost
+     */
+    void read(ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        int read = channel.read(buffer);
+        if (read < 0) {
+            //the client closed the connection without saying bye
+            close();
+            return;
+        }
+        ServerMetrics.BYTES_IN.add(read);
+        buffer.flip();
+        if (session == null && buffer.hasRemaining()) {
+            //the first byte chooses between the binary and the legacy text protocol
+            int first = buffer.get(buffer.position()) & 0xFF;
+            binary = BinaryProtocol.isHandshake(first);
+            if (binary) {
+                buffer.get();
+                session = new ClientSession(instance, out, first & ~BinaryProtocol.HANDSHAKE_FLAG, acceptedAt);
+            } else {
+                session = new ClientSession(instance, out, BinaryProtocol.TEXT, acceptedAt);
+            }
+        }
+        if (binary) readFrames(buffer);
+        else readLines(buffer);
+    }
+
+    /**
+     * Hands every complete line in the buffer to the session
+     * @param buffer ByteBuffer
+     * @throws IOException if a line is too long
+     */
+    private void readLines(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining() && !closed) {
+            byte b = buffer.get();
+            if (b == '\n') {
+                int length = lineLength;
+                if (length > 0 && line[length - 1] == '\r') length--;
+                String str = new String(line, 0, length, StandardCharsets.UTF_8);
+                lineLength = 0;
+                if (!session.handleLine(str)) {
+                    closeChannel();
+                }
+            } else {
+                //a client that never ends its line would fill the heap of the worker
+                if (lineLength > BinaryProtocol.MAX_CLIENT_LINE) throw new IOException("Line longer than " + BinaryProtocol.MAX_CLIENT_LINE + " bytes");
+                append(b);
+            }
+        }
+    }
+
+    /**
+     * Hands every complete binary frame in the buffer to the session
+     * @param buffer ByteBuffer
+     * @throws IOException if a frame is invalid
+     */
+    private void readFrames(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) append(buffer.get());
+        int pos = 0;
+        while (pos < lineLength && !closed) {
+            //decode the var int length prefix
+            int length = 0;
+            int shift = 0;
+            int p = pos;
+            boolean complete = false;
+            while (p < lineLength && shift < 28) {
+                int b = line[p++] & 0xFF;
+                length |= (b & 0x7F) << shift;
+                shift += 7;
+                if ((b & 0x80) == 0) {
+                    complete = true;
+                    break;
+                }
+            }
+            if (!complete) break;
+            if (length <= 0 || length > BinaryProtocol.MAX_CLIENT_FRAME) throw new IOException("Invalid frame length " + length);
+            if (p + length > lineLength) break;
+            if (!session.handleFrame(ByteBuffer.wrap(line, p, length).slice())) {
+                closeChannel();
+            }
+            pos = p + length;
+        }
+        //keep the incomplete frame for the next read
+        System.arraycopy(line, pos, line, 0, lineLength - pos);
+        lineLength -= pos;
+    }
+
+    /**
+     * Appends a byte to the receive buffer
+     * @param b byte
+     */
+    private void append(byte b){
+        if (lineLength == line.length) {
+            byte[] bigger = new byte[line.length * 2];
+            System.arraycopy(line, 0, bigger, 0, lineLength);
+            line = bigger;
+        }
+        line[lineLength++] = b;
+    }
+
+    /**
+     * Writes as much queued data as the socket accepts.
+     * Only called by the worker.
+     * @throws IOException if the connection is lost
+     */
+    void write() throws IOException {
+        if (out.isClosed()) {
+            //the client didn't keep up with the data sent to it
+            if (out.isOverflowed()) {
+                ServerMetrics.SLOW_DISCONNECTS.increment();
+                System.out.println("A Player was disconnected for not keeping up.");
+            }
+            close();
+            return;
+        }
+        while (true) {
+            if (writing == null || !writing.hasRemaining()) {
+                byte[] data = out.poll();
+                if (data == null) break;
+                writing = ByteBuffer.wrap(data);
+                ServerMetrics.MESSAGES_OUT.increment();
+            }
+            ServerMetrics.BYTES_OUT.add(channel.write(writing));
+            //the socket is full, wait for the next writable event
+            if (writing.hasRemaining()) return;
+        }
+        //everything is written, stop watching for writability
+        if (key.isValid()) key.interestOps(SelectionKey.OP_READ);
+    }
+
+    /**
+     * Starts watching for writability. Only called by the worker.
+     */
+    void enableWrite(){
+        if (key.isValid()) key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    /**
+     * Removes the player and closes the connection
+     */
+    void close(){
+        if (closed) return;
+        if (session != null) session.disconnected();
+        else System.out.println("A Player failed to connect");
+        closeChannel();
+    }
+
+    /**
+     * Closes the channel without touching the session
+     */
+    private void closeChannel(){
+        closed = true;
+        out.close();
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
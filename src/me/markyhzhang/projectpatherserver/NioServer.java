@@ -0,0 +1,104 @@
+package me.markyhzhang.projectpatherserver;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * @author Yi Han (Mark) Zhang
+ *
+ * This class is the non-blocking network engine of the
+ * server. Instead of one thread per client, it accepts
+ * players on a single thread and hands every connection
+ * over to a small fixed number of NioWorker threads that
+ * multiplex all of the sockets with a Selector.
+ */
+class NioServer implements Runnable {
+
+    /**
+     * Pather server instance
+     */
+    private PatherServer instance;
+
+    /**
+     * The server socket channel used to accept players
+     */
+    private ServerSocketChannel serverChannel;
+
+    /**
+     * The I/O worker threads owning the connections
+     */
+    private NioWorker[] workers;
+
+    /**
+     * Index of the worker receiving the next connection
+     */
+    private int nextWorker = 0;
+
+    /**
+     * The constructor for this class
+     * @param instance PatherServer main class
+     * @param ioThreads number of I/O worker threads
+     */
+    NioServer(PatherServer instance, int ioThreads){
+        this.instance = instance;
+        workers = new NioWorker[Math.max(1, ioThreads)];
+    }
+
+    /**
+     * Binds the server channel to the port and
+     * starts the worker and accepting threads
+     * @param port integer
+     * @throws IOException if the port can't be bound
+     */
+    void start(int port) throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new NioWorker(instance);
+            Thread thread = new Thread(workers[i], "NioWorker-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        new Thread(this, "NioAcceptor").start();
+    }
+
+    /**
+     * Closes the server channel which stops the
+     * accepting thread and every worker
+     */
+    void close(){
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        for (NioWorker worker : workers) {
+            if (worker != null) worker.close();
+        }
+    }
+
+    /**
+     * Accepts new players/clients and hands them
+     * to the workers in round robin order
+     */
+    @Override
+    public void run() {
+        try {
+            System.out.println("Server running (nio, " + workers.length + " I/O threads)... Accepting clients.");
+            while (instance.isRunning()) {
+                //get the client
+                SocketChannel client = serverChannel.accept();
+                ServerMetrics.ACCEPTED.increment();
+                client.configureBlocking(false);
+                client.socket().setTcpNoDelay(true);
+                //hand it to the next worker
+                workers[nextWorker].register(client);
+                nextWorker = (nextWorker + 1) % workers.length;
+            }
+        } catch (Exception e) {
+            System.out.println("Server closed.");
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package me.markyhzhang.projectpatherserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * @author Yi Han (Mark) Zhang
+ *
+ * This class is one I/O thread of the NioServer. It owns
+ * a Selector and every connection registered to it, reads
+ * and decodes their packets and writes out whatever the
+ * DataSender queued up for them.
+ */
+class NioWorker implements Runnable {
+
+    /**
+     * Pather server instance
+     */
+    private PatherServer instance;
+
+    /**
+     * The selector multiplexing the connections
+     */
+    private Selector selector;
+
+    /**
+     * Channels accepted but not registered to the selector yet
+     */
+    private Queue<SocketChannel> pendingChannels = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Connections that have new data waiting to be written
+     */
+    private Queue<NioConnection> pendingFlushes = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Read buffer shared by every connection of this worker
+     */
+    private ByteBuffer readBuffer = ByteBuffer.allocateDirect(8192);
+
+    /**
+     * The constructor for this class
+     * @param instance PatherServer main class
+     * @throws IOException if the selector can't be opened
+     */
+    NioWorker(PatherServer instance) throws IOException {
+        this.instance = instance;
+        selector = Selector.open();
+    }
+
+    /**
+     * Hands a newly accepted channel to this worker,
+     * can be called from any thread
+     * @param channel SocketChannel
+     */
+    void register(SocketChannel channel){
+        pendingChannels.add(channel);
+        selector.wakeup();
+    }
+
+    /**
+     * Asks this worker to write the queued data of
+     * the connection, can be called from any thread
+     * @param connection NioConnection
+     */
+    void requestFlush(NioConnection connection){
+        pendingFlushes.add(connection);
+        selector.wakeup();
+    }
+
+    /**
+     * Closes the selector which stops this worker
+     */
+    void close(){
+        try {
+            selector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * The select loop of this worker
+     */
+    @Override
+    public void run() {
+        try {
+            while (instance.isRunning() && selector.isOpen()) {
+                selector.select();
+
+                //register the newly accepted channels
+                SocketChannel channel;
+                while ((channel = pendingChannels.poll()) != null) {
+                    try {
+                        //no reverse DNS lookup here, it would block every client of this worker
+                        System.out.println("A Player connected from " + channel.socket().getInetAddress().getHostAddress());
+                        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                        key.attach(new NioConnection(instance, this, channel, key));
+                    } catch (IOException e) {
+                        System.out.println("A Player failed to connect");
+                    }
+                }
+
+                //start watching for writability on connections with queued data
+                NioConnection connection;
+                while ((connection = pendingFlushes.poll()) != null) {
+                    connection.enableWrite();
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    NioConnection conn = (NioConnection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) conn.read(readBuffer);
+                        if (key.isValid() && key.isWritable()) conn.write();
+                    } catch (IOException e) {
+                        //If an IOException is thrown that means this player left the game
+                        conn.close();
+                    } catch (RuntimeException e) {
+                        //malformed packet, drop the connection like ClientHandler does
+                        e.printStackTrace();
+                        conn.close();
+                    }
+                }
+            }
+        } catch (Exception e) {
+            if (instance.isRunning()) {
+                System.out.println("Wow! Wut was that");
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package me.markyhzhang.projectpatherserver;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * @author Yi Han (Mark) Zhang
+ *
+ * This class is the bounded queue of data waiting to be sent
+ * to one client. The DataSender only ever adds to it, so a
+ * client with a full TCP window can't stall the tick for the
+ * others, and the data is written by the client's own writer
+ * (a ClientWriter thread or its NioWorker).
+ *
+ * Slow consumer policy: a state frame (a snapshot, keyframe,
+ * delta or text state line) replaces every state frame still
+ * waiting, since each one carries the whole state the client
+ * needs. Other data (handshakes, PLAYER_INFO, PLAYER_LEFT, INTEREST) is
+ * never dropped. A client that made the queue drop too many
+ * frames in a row without ever emptying it, or that let it grow
+ * over its byte limit, is disconnected by closing the queue.
+ */
+class OutboundQueue {
+
+    /**
+     * Most bytes waiting before the client is disconnected,
+     * set with -Dpather.outboundMaxBytes
+     */
+    static final int MAX_BYTES = Integer.getInteger("pather.outboundMaxBytes", 1 << 20);
+
+    /**
+     * Most state frames dropped in a row before the client is
+     * disconnected, set with -Dpather.slowConsumerDrops
+     */
+    static final int MAX_DROPS = Integer.getInteger("pather.slowConsumerDrops", 300);
+
+    /**
+     * The data waiting to be written, oldest first
+     */
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+
+    /**
+     * Called when data was added, null for blocking writers that wait on the queue
+     */
+    private Runnable listener;
+
+    /**
+     * Number of bytes waiting, readable from any thread
+     */
+    private volatile int bytes = 0;
+
+    /**
+     * System.nanoTime() when the oldest entry waiting was queued, 0 when empty
+     */
+    private volatile long oldestAt = 0;
+
+    /**
+     * Number of state frames dropped since the queue was last empty
+     */
+    private int drops = 0;
+
+    /**
+     * Total number of state frames dropped
+     */
+    private volatile long dropped = 0;
+
+    /**
+     * Number of entries waiting, readable from any thread
+     */
+    private volatile int depth = 0;
+
+    /**
+     * Either the queue is closed or not
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * Either the queue was closed because the client was too slow
+     */
+    private volatile boolean overflowed = false;
+
+    /**
+     * Constructor for a queue drained by a thread blocking in take()
+     */
+    OutboundQueue(){
+    }
+
+    /**
+     * Constructor for a queue drained by a non-blocking writer
+     * @param listener Runnable called after data was added or the queue was closed
+     */
+    OutboundQueue(Runnable listener){
+        this.listener = listener;
+    }
+
+    /**
+     * Queues data that must be delivered
+     * @param data byte[] not modified afterwards
+     */
+    void offer(byte[] data){
+        offer(data, false);
+    }
+
+    /**
+     * Queues a state frame, replacing the ones still waiting
+     * @param data byte[] not modified afterwards
+     */
+    void offerState(byte[] data){
+        offer(data, true);
+    }
+
+    /**
+     * Queues data and applies the slow consumer policy
+     * @param data byte[]
+     * @param state boolean either the data is a replaceable state frame
+     */
+    private void offer(byte[] data, boolean state){
+        synchronized (this) {
+            if (closed) return;
+            if (state) {
+                //the newer state makes the older ones useless
+                Iterator<Entry> it = entries.iterator();
+                while (it.hasNext()) {
+                    Entry e = it.next();
+                    if (e.state) {
+                        it.remove();
+                        bytes -= e.data.length;
+                        drops++;
+                        dropped++;
+                    }
+                }
+            }
+            entries.add(new Entry(data, state));
+            bytes += data.length;
+            depth = entries.size();
+            oldestAt = entries.peek().queuedAt;
+            if (drops > MAX_DROPS || bytes > MAX_BYTES) {
+                overflowed = true;
+                closed = true;
+            }
+            notifyAll();
+        }
+        if (listener != null) listener.run();
+    }
+
+    /**
+     * Takes the oldest data without waiting
+     * @return byte[] or null if the queue is empty
+     */
+    synchronized byte[] poll(){
+        Entry e = entries.poll();
+        if (e == null) return null;
+        bytes -= e.data.length;
+        depth = entries.size();
+        Entry next = entries.peek();
+        oldestAt = next == null ? 0 : next.queuedAt;
+        //the client caught up
+        if (depth == 0) drops = 0;
+        return e.data;
+    }
+
+    /**
+     * Takes the oldest data, waiting for some if the queue is empty
+     * @return byte[] or null once the queue is closed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    synchronized byte[] take() throws InterruptedException {
+        while (entries.isEmpty() && !closed) wait();
+        return closed ? null : poll();
+    }
+
+    /**
+     * Closes the queue, the data still waiting is discarded
+     */
+    void close(){
+        synchronized (this) {
+            closed = true;
+            entries.clear();
+            bytes = 0;
+            depth = 0;
+            oldestAt = 0;
+            notifyAll();
+        }
+        if (listener != null) listener.run();
+    }
+
+    /**
+     * Getter for if the queue is closed
+     * @return boolean
+     */
+    boolean isClosed(){
+        return closed;
+    }
+
+    /**
+     * Getter for if the queue was closed because the client was too slow
+     * @return boolean
+     */
+    boolean isOverflowed(){
+        return overflowed;
+    }
+
+    /**
+     * Getter for the number of entries waiting
+     * @return integer
+     */
+    int getDepth(){
+        return depth;
+    }
+
+    /**
+     * Getter for the total number of state frames dropped
+     * @return long
+     */
+    long getDropped(){
+        return dropped;
+    }
+
+    /**
+     * Getter for the number of bytes waiting
+     * @return integer
+     */
+    int getBytes(){
+        return bytes;
+    }
+
+    /**
+     * Getter for how long the oldest data has been waiting,
+     * how far behind the client is
+     * @return long nanoseconds, 0 if nothing is waiting
+     */
+    long getLag(){
+        long at = oldestAt;
+        return at == 0 ? 0 : Math.max(0, System.nanoTime() - at);
+    }
+
+    /**
+     * Data waiting in the queue
+     */
+    private static final class Entry {
+
+        /**
+         * The bytes to write
+         */
+        final byte[] data;
+
+        /**
+         * Either the data is a replaceable state frame
+         */
+        final boolean state;
+
+        /**
+         * System.nanoTime() when the data was queued
+         */
+        final long queuedAt = System.nanoTime();
+
+        Entry(byte[] data, boolean state){
+            this.data = data;
+            this.state = state;
+        }
+    }
+}
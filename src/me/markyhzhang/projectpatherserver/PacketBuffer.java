@@ -0,0 +1,222 @@
+package me.markyhzhang.projectpatherserver;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * @author Yi Han (Mark) Zhang
+ *
+ * This class is a growable big-endian byte buffer used to
+ * encode binary protocol frames. It is meant to be reused,
+ * so encoding a tick doesn't allocate once it has grown
+ * to its working size.
+ */
+class PacketBuffer {
+
+    /**
+     * The bytes of this buffer
+     */
+    private byte[] data;
+
+    /**
+     * The write position in this buffer
+     */
+    private int pos = 0;
+
+    /**
+     * Start position of the frame being written
+     */
+    private int frameStart = -1;
+
+    /**
+     * The constructor for this class
+     * @param capacity integer initial capacity
+     */
+    PacketBuffer(int capacity){
+        data = new byte[Math.max(16, capacity)];
+    }
+
+    /**
+     * Makes sure there are n more bytes available
+     * @param n integer
+     */
+    private void ensure(int n){
+        if (pos + n > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, pos + n));
+        }
+    }
+
+    /**
+     * Empties this buffer for reuse
+     */
+    void clear(){
+        pos = 0;
+        frameStart = -1;
+    }
+
+    /**
+     * Getter for the number of bytes written
+     * @return integer
+     */
+    int size(){
+        return pos;
+    }
+
+    /**
+     * Getter for the backing array, only the
+     * first size() bytes are valid
+     * @return byte[]
+     */
+    byte[] array(){
+        return data;
+    }
+
+    /**
+     * Copy of the written bytes
+     * @return byte[]
+     */
+    byte[] toByteArray(){
+        return Arrays.copyOf(data, pos);
+    }
+
+    /**
+     * Starts a frame with the opcode, the length
+     * is filled in by endFrame()
+     * @param opcode integer
+     */
+    void beginFrame(int opcode){
+        frameStart = pos;
+        putByte(opcode);
+    }
+
+    /**
+     * Ends the current frame by prefixing it with
+     * its length as a var int
+     */
+    void endFrame(){
+        endFrame(0);
+    }
+
+    /**
+     * Ends the frame started by beginFrame() when the frame continues
+     * with bytes that are sent right after this buffer, not copied in it
+     * @param extra integer number of bytes following the buffer
+     */
+    void endFrame(int extra){
+        int length = pos - frameStart + extra;
+        int prefix = varIntSize(length);
+        ensure(prefix);
+        System.arraycopy(data, frameStart, data, frameStart + prefix, length - extra);
+        int end = pos + prefix;
+        pos = frameStart;
+        putVarInt(length);
+        pos = end;
+        frameStart = -1;
+    }
+
+    /**
+     * Appends the whole content of another buffer
+     * @param other PacketBuffer
+     */
+    void put(PacketBuffer other){
+        put(other.data, 0, other.pos);
+    }
+
+    /**
+     * Appends bytes
+     * @param b byte[]
+     * @param off integer offset
+     * @param len integer length
+     */
+    void put(byte[] b, int off, int len){
+        ensure(len);
+        System.arraycopy(b, off, data, pos, len);
+        pos += len;
+    }
+
+    /**
+     * Appends one byte
+     * @param v integer
+     */
+    void putByte(int v){
+        ensure(1);
+        data[pos++] = (byte) v;
+    }
+
+    /**
+     * Appends an unsigned 16 bit integer
+     * @param v integer
+     */
+    void putShort(int v){
+        ensure(2);
+        data[pos++] = (byte) (v >>> 8);
+        data[pos++] = (byte) v;
+    }
+
+    /**
+     * Appends a 32 bit integer
+     * @param v integer
+     */
+    void putInt(int v){
+        ensure(4);
+        data[pos++] = (byte) (v >>> 24);
+        data[pos++] = (byte) (v >>> 16);
+        data[pos++] = (byte) (v >>> 8);
+        data[pos++] = (byte) v;
+    }
+
+    /**
+     * Appends a 64 bit integer
+     * @param v long
+     */
+    void putLong(long v){
+        putInt((int) (v >>> 32));
+        putInt((int) v);
+    }
+
+    /**
+     * Appends a 32 bit float
+     * @param v double, narrowed to float
+     */
+    void putFloat(double v){
+        putInt(Float.floatToIntBits((float) v));
+    }
+
+    /**
+     * Appends an unsigned var int (7 bits per byte)
+     * @param v integer
+     */
+    void putVarInt(int v){
+        while ((v & ~0x7F) != 0) {
+            putByte((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        putByte(v);
+    }
+
+    /**
+     * Appends a string as an unsigned byte
+     * length followed by its UTF-8 bytes
+     * @param s String
+     */
+    void putString(String s){
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        int len = Math.min(255, bytes.length);
+        putByte(len);
+        put(bytes, 0, len);
+    }
+
+    /**
+     * Number of bytes needed for a var int
+     * @param v integer
+     * @return integer
+     */
+    static int varIntSize(int v){
+        int size = 1;
+        while ((v & ~0x7F) != 0) {
+            size++;
+            v >>>= 7;
+        }
+        return size;
+    }
+}
@@ -2,11 +2,12 @@ package me.markyhzhang.projectpatherserver;
 
 import me.markyhzhang.projectpatherserver.gui.StartFrame;
 
-import java.awt.Point;
+import java.io.File;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.ArrayList;
+import java.util.zip.CRC32;
 
 /**
  * @author Yi Han (Mark) Zhang
@@ -17,6 +18,19 @@ import java.util.ArrayList;
  */
 public class PatherServer implements Runnable{
 
+    /**
+     * Enum for the networking engine used to
+     * handle the connected clients
+     */
+    public enum NetworkMode {
+        //one ClientHandler thread per client (blocking I/O)
+        THREAD,
+        //a few NioWorker threads multiplexing every client (non-blocking I/O)
+        NIO,
+        //one ClientHandler virtual thread per client (blocking I/O on virtual threads)
+        VIRTUAL
+    }
+
     /**
      * Either the server is running or not
      */
@@ -32,26 +46,98 @@ public class PatherServer implements Runnable{
      */
     private DataSender dataSender;
 
+    /**
+     * Declare the GameSimulation object
+     */
+    private GameSimulation simulation;
+
+    /**
+     * Simulation ticks per second, set with -Dpather.tickRate
+     */
+    private int tickRate = Integer.getInteger("pather.tickRate", 60);
+
     /**
      * Declare the ServerSockert object
      */
     private ServerSocket serverSocket;
 
     /**
-     * The map of the game/maze in 2d integer array
+     * The networking engine, set with -Dpather.network=thread|nio|virtual
+     */
+    private NetworkMode networkMode = NetworkMode.valueOf(System.getProperty("pather.network", "thread").toUpperCase());
+
+    /**
+     * Number of I/O threads used by the NIO engine, set with -Dpather.ioThreads
+     */
+    private int ioThreads = Integer.getInteger("pather.ioThreads", Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * Declare the NioServer object, only used in NIO mode
+     */
+    private NioServer nioServer;
+
+    /**
+     * The map of the game/maze
      */
-    private int[][] map;
+    private GameMap map;
 
     /**
      * The map compressed into 1D string for sending to players
      */
     private String mapStr = "";
 
+    /**
+     * The seed of the map generation, set with -Dpather.mapSeed
+     * for a reproducible map, random otherwise
+     */
+    private long mapSeed = Long.getLong("pather.mapSeed", System.nanoTime() ^ System.currentTimeMillis() << 20);
+
+    /**
+     * The maze generation algorithm, set with -Dpather.mapAlgorithm=dfs|prim|kruskal
+     */
+    private MapGenerator.Algorithm mapAlgorithm = MapGenerator.Algorithm.valueOf(System.getProperty("pather.mapAlgorithm", "dfs").toUpperCase());
+
+    /**
+     * If the maze is carved in parallel tiles, set with -Dpather.mapParallel=true
+     */
+    private boolean mapParallel = Boolean.getBoolean("pather.mapParallel");
+
+    /**
+     * The algorithm id of the map sent to the clients (see MapGenerator.getAlgorithmId)
+     */
+    private int mapAlgorithmId;
+
+    /**
+     * The store of the generated maps, set with -Dpather.mapDir=directory,
+     * null if the maps aren't stored
+     */
+    private MapStore mapStore = System.getProperty("pather.mapDir") == null ? null : new MapStore(new File(System.getProperty("pather.mapDir")));
+
+    /**
+     * Time it took to generate or load the map
+     */
+    private long mapGenerationTime;
+
+    /**
+     * CRC32 of the map cells, sent with the seed so clients can check their map
+     */
+    private int mapChecksum;
+
+    /**
+     * The map as one byte per cell for version 1 to 3 binary clients
+     */
+    private byte[] mapCells;
+
+    /**
+     * The map packed 4 bits per cell and deflated for version 4 binary clients
+     */
+    private byte[] mapCompact;
+
     /**
      * Available spawning points for the player
      * wound the out-ter paths of the map
      */
-    private ArrayList<Point> availableSpawningPoints = new ArrayList<>();
+    private ArrayList<GridPoint> availableSpawningPoints = new ArrayList<>();
 
     /**
      * The main method of this program
@@ -76,19 +162,39 @@ public class PatherServer implements Runnable{
      * @param port integer
      */
     public void start(int port){
+        //set running flag to true
+        running = true;
+        //Runs the simulation on its own thread, it is the only one changing the players
+        simulation = new GameSimulation(this, tickRate);
+        new Thread(simulation, "GameSimulation").start();
+        //Runs DataSender class in another thread
+        dataSender = new DataSender(this);
+        new Thread(dataSender).start();
+        ServerMetrics.start(this);
+
+        if (networkMode == NetworkMode.NIO) {
+            //Runs the non-blocking engine on its own threads
+            nioServer = new NioServer(this, ioThreads);
+            try {
+                nioServer.start(port);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+
+        if (networkMode == NetworkMode.VIRTUAL && !Threads.isVirtualSupported()) {
+            System.out.println("Virtual threads aren't supported by this JVM, using platform threads.");
+        }
+
         //initialize the server socket
         try {
             serverSocket = new ServerSocket(port);
         } catch (IOException e) {
             e.printStackTrace();
         }
-        //set running flag to true
-        running = true;
-        //Runs DataSender class in another thread
-        dataSender = new DataSender(this);
-        new Thread(dataSender).start();
         //Runs server console in another thead
-        new Thread(this).start();
+        Threads.start(this, "Acceptor", networkMode == NetworkMode.VIRTUAL);
     }
 
     /**
@@ -97,22 +203,97 @@ public class PatherServer implements Runnable{
      * @param sizeOfMap integer
      */
     public void generateMap(int sizeOfMap){
-        //initializes the map generator and generates the map
-        MapGenerator mapGenerator = new MapGenerator(sizeOfMap, sizeOfMap);
-        map = mapGenerator.generate();
-
-        //constructing the mapstr to be sent to players
-        for (int i = 0; i < map.length; i++) {
-            for (int j = 0; j < map[0].length; j++) {
-                if (i==1||j==1||i==map.length-2||j==map.length-2){
-                    if (map[i][j]==0){
-                        availableSpawningPoints.add(new Point(i,j));
+        generateMap(sizeOfMap, mapSeed);
+    }
+
+    /**
+     * This method will generate the map of a seed
+     * for this round of the game, the same seed and
+     * size always give the same map
+     * @param sizeOfMap integer
+     * @param seed long
+     */
+    public void generateMap(int sizeOfMap, long seed){
+        mapSeed = seed;
+        mapAlgorithmId = MapGenerator.algorithmId(mapAlgorithm, mapParallel);
+
+        //created before the timer, the first flight event of the JVM takes a while to load JFR
+        MapGenerator generator = new MapGenerator(sizeOfMap, sizeOfMap, seed, mapAlgorithm, mapParallel);
+
+        //loads the map if it was stored before
+        long start = System.nanoTime();
+        MapStore.Entry stored = mapStore == null ? null : mapStore.load(sizeOfMap, mapAlgorithmId, seed);
+        if (stored != null) {
+            map = stored.map;
+            availableSpawningPoints = stored.spawningPoints;
+            mapCompact = stored.compact;
+            mapChecksum = stored.checksum;
+        } else {
+            //generates the map
+            map = generator.generate();
+
+            //finding the spawning points around the out-ter paths of the map, only visiting the ring
+            availableSpawningPoints = new ArrayList<>();
+            for (int i = 1; i < map.getWidth()-1; i++) {
+                boolean edge = i==1 || i==map.getWidth()-2;
+                for (int j = 1; j < map.getHeight()-1; j = edge || j==map.getHeight()-2 ? j+1 : map.getHeight()-2) {
+                    if (map.get(i, j)==GameMap.FLOOR){
+                        availableSpawningPoints.add(new GridPoint(i,j));
                     }
                 }
-                mapStr+=map[i][j];
             }
-            mapStr+="|";
+
+            mapCompact = MapCodec.encodeCompact(map);
+            CRC32 crc = new CRC32();
+            crc.update(map.getCells());
+            mapChecksum = (int) crc.getValue();
+            if (mapStore != null) {
+                mapStore.save(sizeOfMap, new MapStore.Entry(map, mapAlgorithmId, seed, mapChecksum, availableSpawningPoints, mapCompact));
+            }
         }
+        playersManager.initGrid(map.getWidth(), map.getHeight());
+
+        //encoding the map once for every handshake to be sent to players
+        mapStr = MapCodec.encodeText(map);
+        mapCells = map.getCells();
+        mapGenerationTime = System.nanoTime() - start;
+        System.out.println("Map " + map.getWidth() + "x" + map.getHeight() + " " + mapAlgorithm + (mapParallel ? " tiled" : "") + " seed " + seed
+                + (stored != null ? " loaded" : " generated") + " in " + mapGenerationTime / 1000000 + " ms, "
+                + mapCells.length + " cells, " + mapCompact.length + " bytes compact");
+    }
+
+    /**
+     * Getter for the networking engine
+     * @return NetworkMode
+     */
+    public NetworkMode getNetworkMode() {
+        return networkMode;
+    }
+
+    /**
+     * Setter for the networking engine, must
+     * be called before the server is started
+     * @param networkMode NetworkMode
+     */
+    public void setNetworkMode(NetworkMode networkMode) {
+        this.networkMode = networkMode;
+    }
+
+    /**
+     * Setter for the simulation tick rate, must
+     * be called before the server is started
+     * @param tickRate integer ticks per second
+     */
+    public void setTickRate(int tickRate) {
+        this.tickRate = tickRate;
+    }
+
+    /**
+     * Getter for the simulation tick rate
+     * @return integer ticks per second
+     */
+    int getTickRate() {
+        return tickRate;
     }
 
     /**
@@ -132,10 +313,58 @@ public class PatherServer implements Runnable{
     }
 
     /**
-     * Getter for the map int[][] array
-     * @return int[][]
+     * Getter for the map as one byte per cell
+     * @return byte[] shared, must not be modified
+     */
+    byte[] getMapCells() {
+        return mapCells;
+    }
+
+    /**
+     * Getter for the compact map encoding
+     * @return byte[] shared, must not be modified
      */
-    public int[][] getMap() {
+    byte[] getMapCompact() {
+        return mapCompact;
+    }
+
+    /**
+     * Getter for the seed of the map
+     * @return long
+     */
+    public long getMapSeed() {
+        return mapSeed;
+    }
+
+    /**
+     * Getter for the algorithm id of the map sent to the clients
+     * @return integer
+     */
+    int getMapAlgorithmId() {
+        return mapAlgorithmId;
+    }
+
+    /**
+     * Getter for the time it took to generate or load the map
+     * @return long nanoseconds
+     */
+    long getMapGenerationTime() {
+        return mapGenerationTime;
+    }
+
+    /**
+     * Getter for the CRC32 of the map cells
+     * @return integer
+     */
+    int getMapChecksum() {
+        return mapChecksum;
+    }
+
+    /**
+     * Getter for the map
+     * @return GameMap
+     */
+    public GameMap getMap() {
         return map;
     }
 
@@ -149,9 +378,9 @@ public class PatherServer implements Runnable{
 
     /**
      * Getter for a random valid spawning point on the map
-     * @return Point
+     * @return GridPoint
      */
-    Point getRandomSpawnPoint(){
+    GridPoint getRandomSpawnPoint(){
         return availableSpawningPoints.get((int)(Math.random() * availableSpawningPoints.size()));
     }
 
@@ -163,6 +392,14 @@ public class PatherServer implements Runnable{
         return dataSender;
     }
 
+    /**
+     * Getter for the game simulation
+     * @return GameSimulation
+     */
+    GameSimulation getSimulation() {
+        return simulation;
+    }
+
     /**
      * This method is triggered when this thread
      * is started. It will accept new players/clients
@@ -172,12 +409,14 @@ public class PatherServer implements Runnable{
     public void run() {
         try{
             System.out.println("Server running... Accepting clients.");
+            boolean virtual = networkMode == NetworkMode.VIRTUAL;
             //This while loop continue accepts new clients
             while (running) {
                 //get the client
                 Socket client = serverSocket.accept();
+                ServerMetrics.ACCEPTED.increment();
                 //start a ClientHandler on another thread
-                new Thread(new ClientHandler(client, this)).start();
+                Threads.start(new ClientHandler(client, this), "ClientHandler", virtual);
             }
         }catch (Exception e){
             System.out.println("Server closed.");
@@ -1,7 +1,7 @@
 package me.markyhzhang.projectpatherserver;
 
-import java.io.PrintStream;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * @author Yi Han (Mark) Zhang
@@ -32,6 +32,11 @@ public class Player{
      */
     private UUID id;
 
+    /**
+     * The UUID of player as a String, cached for the text protocol
+     */
+    private String idString;
+
     /**
      * Name of player
      */
@@ -42,6 +47,17 @@ public class Player{
      */
     private PlayerType type;
 
+    /**
+     * The PlayerStore holding the state of the player once added
+     */
+    private PlayerStore store;
+
+    /**
+     * The slot of the player in the store, -1 while not in the game.
+     * The fields below only hold the state while not in the game
+     */
+    private volatile int slot = -1;
+
     /**
      * Health for this player
      */
@@ -73,29 +89,76 @@ public class Player{
     private double y;
 
     /**
-     * The output stream to the player used in DataSender (broadcast purposes)
+     * The queue of data to the player used in DataSender (broadcast purposes)
+     */
+    private OutboundQueue outbound;
+
+    /**
+     * System.nanoTime() when the connection of the player was accepted
+     */
+    private long acceptedAt;
+
+    /**
+     * The small integer id of the player used by the
+     * binary protocol, -1 until added to PlayersManager
+     */
+    private int netId = -1;
+
+    /**
+     * The protocol version spoken by the player's client,
+     * BinaryProtocol.TEXT for legacy clients
+     */
+    private int protocol;
+
+    /**
+     * Either the player already received the join handshake
+     */
+    private boolean welcomed = false;
+
+    /**
+     * The last tick acknowledged by the client, -1 if none.
+     * Written by the client's I/O thread, read by the DataSender
+     */
+    private volatile int ackedTick = -1;
+
+    /**
+     * The latest input of the player waiting for the next tick.
+     * Written by the client's I/O thread, taken by the GameSimulation
+     */
+    private final AtomicReference<PlayerInput> pendingInput = new AtomicReference<>();
+
+    /**
+     * The tick the last KEYFRAME was sent to the client at
+     */
+    private int keyframeTick = -1;
+
+    /**
+     * The area of interest of the client, null until used
      */
-    private PrintStream printStream;
+    private InterestSet interest;
 
     /**
      * The constructor for new players
-     * @param printStream PrintStream (output stream)
+     * @param outbound OutboundQueue (output queue)
      * @param id UUID of player
      * @param name String name of player
      * @param type String type of player
      * @param x double x
      * @param y double y
+     * @param protocol integer protocol version of the client
      */
-    Player(PrintStream printStream, UUID id, String name, String type, double x, double y){
+    Player(OutboundQueue outbound, UUID id, String name, String type, double x, double y, int protocol){
         this.name = name;
         this.type = PlayerType.valueOf(type);
-        this.printStream = printStream;
+        this.outbound = outbound;
         this.id = id;
+        idString = id.toString();
         health = 100;
         isDamaging = false;
         isAttacking = false;
         this.x = x;
         this.y = y;
+        this.protocol = protocol;
     }
 
     /**
@@ -103,7 +166,8 @@ public class Player{
      * @return boolean
      */
     public boolean isDamaging() {
-        return isDamaging;
+        int i = slot;
+        return i >= 0 ? store.isDamaging(i) : isDamaging;
     }
 
     /**
@@ -111,7 +175,9 @@ public class Player{
      * @param isDamaging boolean
      */
     void setDamaging(boolean isDamaging) {
-        this.isDamaging = isDamaging;
+        int i = slot;
+        if (i >= 0) store.setFlag(i, PlayerStore.DAMAGING, isDamaging);
+        else this.isDamaging = isDamaging;
     }
 
     /**
@@ -119,7 +185,8 @@ public class Player{
      * @return boolean
      */
     public boolean isAttacking() {
-        return isAttacking;
+        int i = slot;
+        return i >= 0 ? store.isAttacking(i) : isAttacking;
     }
 
     /**
@@ -127,7 +194,9 @@ public class Player{
      * @param isAttacking boolean
      */
     void setAttacking(boolean isAttacking) {
-        this.isAttacking = isAttacking;
+        int i = slot;
+        if (i >= 0) store.setFlag(i, PlayerStore.ATTACKING, isAttacking);
+        else this.isAttacking = isAttacking;
     }
 
     /**
@@ -138,6 +207,14 @@ public class Player{
         return id;
     }
 
+    /**
+     * Getter for UUID as a String
+     * @return String
+     */
+    String getIdString() {
+        return idString;
+    }
+
     /**
      * Getter for name
      * @return String
@@ -159,7 +236,8 @@ public class Player{
      * @return double
      */
     public double getHealth() {
-        return health;
+        int i = slot;
+        return i >= 0 ? store.getHealth(i) : health;
     }
 
     /**
@@ -175,7 +253,9 @@ public class Player{
      * @param amt double damage
      */
     void damage(double amt){
-        health-=amt;
+        int i = slot;
+        if (i >= 0) store.setHealth(i, store.getHealth(i) - amt);
+        else health-=amt;
     }
 
     /**
@@ -183,7 +263,8 @@ public class Player{
      * @return double
      */
     public double getX(){
-        return x;
+        int i = slot;
+        return i >= 0 ? store.getX(i) : x;
     }
 
     /**
@@ -191,7 +272,9 @@ public class Player{
      * @param x double x coordinate
      */
     void setX(double x){
-        this.x = x;
+        int i = slot;
+        if (i >= 0) store.setX(i, x);
+        else this.x = x;
     }
 
     /**
@@ -199,7 +282,8 @@ public class Player{
      * @return double y coordinate
      */
     public double getY(){
-        return y;
+        int i = slot;
+        return i >= 0 ? store.getY(i) : y;
     }
 
     /**
@@ -207,15 +291,50 @@ public class Player{
      * @param y
      */
     void setY(double y){
-        this.y = y;
+        int i = slot;
+        if (i >= 0) store.setY(i, y);
+        else this.y = y;
+    }
+
+    /**
+     * Getter for the OutboundQueue of this player
+     * @return OutboundQueue
+     */
+    OutboundQueue getOutbound() {
+        return outbound;
+    }
+
+    /**
+     * Getter for when the connection of the player was accepted
+     * @return long System.nanoTime()
+     */
+    long getAcceptedAt() {
+        return acceptedAt;
     }
 
     /**
-     * Getter for the PrintStream of this player
-     * @return PrintStream
+     * Setter for when the connection of the player was accepted
+     * @param acceptedAt long System.nanoTime()
      */
-    PrintStream getPrintStream() {
-        return printStream;
+    void setAcceptedAt(long acceptedAt) {
+        this.acceptedAt = acceptedAt;
+    }
+
+    /**
+     * Getter for the number of packets waiting to be sent to this player
+     * @return integer
+     */
+    public int getOutboundDepth() {
+        return outbound.getDepth();
+    }
+
+    /**
+     * Getter for the number of stale snapshots dropped
+     * because this player didn't keep up
+     * @return long
+     */
+    public long getOutboundDropped() {
+        return outbound.getDropped();
     }
 
     /**
@@ -223,7 +342,9 @@ public class Player{
      * @param attackDamage double
      */
     void setAttackDamage(double attackDamage) {
-        this.attackDamage = attackDamage;
+        int i = slot;
+        if (i >= 0) store.setAttackDamage(i, attackDamage);
+        else this.attackDamage = attackDamage;
     }
 
     /**
@@ -231,6 +352,155 @@ public class Player{
      * @return double attack damage
      */
     double getAttackDamage() {
-        return attackDamage;
+        int i = slot;
+        return i >= 0 ? store.getAttackDamage(i) : attackDamage;
+    }
+
+    /**
+     * Getter for the small integer id
+     * @return integer
+     */
+    int getNetId() {
+        return netId;
+    }
+
+    /**
+     * Setter for the small integer id
+     * @param netId integer
+     */
+    void setNetId(int netId) {
+        this.netId = netId;
+    }
+
+    /**
+     * Getter for the protocol version of the client
+     * @return integer
+     */
+    int getProtocol() {
+        return protocol;
+    }
+
+    /**
+     * Getter for if the client speaks the binary protocol
+     * @return boolean
+     */
+    boolean isBinary() {
+        return protocol != BinaryProtocol.TEXT;
+    }
+
+    /**
+     * Getter for the welcomed flag
+     * @return boolean
+     */
+    boolean isWelcomed() {
+        return welcomed;
+    }
+
+    /**
+     * Setter for the welcomed flag
+     * @param welcomed boolean
+     */
+    void setWelcomed(boolean welcomed) {
+        this.welcomed = welcomed;
+    }
+
+    /**
+     * Getter for if the client is sent deltas
+     * @return boolean
+     */
+    boolean isDeltaSupported() {
+        return protocol >= BinaryProtocol.VERSION_DELTA;
+    }
+
+    /**
+     * Getter for if the client supports area of interest filtering
+     * @return boolean
+     */
+    boolean isInterestSupported() {
+        return protocol >= BinaryProtocol.VERSION_INTEREST;
+    }
+
+    /**
+     * Getter for the area of interest of the client
+     * @return InterestSet
+     */
+    InterestSet getInterest() {
+        if (interest == null) interest = new InterestSet();
+        return interest;
+    }
+
+    /**
+     * Getter for the last tick acknowledged by the client
+     * @return integer
+     */
+    int getAckedTick() {
+        return ackedTick;
+    }
+
+    /**
+     * Setter for the last tick acknowledged by the client
+     * @param ackedTick integer
+     */
+    void setAckedTick(int ackedTick) {
+        this.ackedTick = ackedTick;
+    }
+
+    /**
+     * Replaces the input waiting for the next tick
+     * @param input PlayerInput or null to take the waiting one
+     * @return PlayerInput the one replaced, null if none was waiting
+     */
+    PlayerInput swapPendingInput(PlayerInput input) {
+        return pendingInput.getAndSet(input);
+    }
+
+    /**
+     * Getter for the tick of the last KEYFRAME sent
+     * @return integer
+     */
+    int getKeyframeTick() {
+        return keyframeTick;
+    }
+
+    /**
+     * Setter for the tick of the last KEYFRAME sent
+     * @param keyframeTick integer
+     */
+    void setKeyframeTick(int keyframeTick) {
+        this.keyframeTick = keyframeTick;
+    }
+
+    /**
+     * Getter for the slot of the player in the PlayerStore
+     * @return integer or -1 while not in the game
+     */
+    int getSlot() {
+        return slot;
+    }
+
+    /**
+     * Called by the PlayerStore once the state of the
+     * player was moved into the slot
+     * @param store PlayerStore
+     * @param slot integer
+     */
+    void attach(PlayerStore store, int slot) {
+        this.store = store;
+        this.slot = slot;
+    }
+
+    /**
+     * Called by the PlayerStore before freeing the slot,
+     * moves the last state of the player back into it
+     */
+    void detach() {
+        int i = slot;
+        x = store.getX(i);
+        y = store.getY(i);
+        health = store.getHealth(i);
+        attackDamage = store.getAttackDamage(i);
+        isAttacking = store.isAttacking(i);
+        isDamaging = store.isDamaging(i);
+        slot = -1;
     }
 }
@@ -0,0 +1,62 @@
+package me.markyhzhang.projectpatherserver;
+
+/**
+ * @author Yi Han (Mark) Zhang
+ *
+ * This class is one input submitted to the GameSimulation,
+ * sent by a client (move, attack). Inputs are immutable, only the
+ * latest one of a player is applied at the start of the next tick.
+ */
+final class PlayerInput {
+
+    /**
+     * Enum for the input types
+     */
+    enum Type {
+        //location update, stops attacking
+        MOVE,
+        //location update while attacking with a damage
+        ATTACK
+    }
+
+    /**
+     * The type of this input
+     */
+    final Type type;
+
+    /**
+     * The player the input is for
+     */
+    final Player player;
+
+    /**
+     * The X coordinate
+     */
+    final double x;
+
+    /**
+     * The Y coordinate
+     */
+    final double y;
+
+    /**
+     * The attack damage, only used by ATTACK
+     */
+    final double damage;
+
+    /**
+     * The constructor for this class
+     * @param type Type
+     * @param player Player
+     * @param x double
+     * @param y double
+     * @param damage double
+     */
+    PlayerInput(Type type, Player player, double x, double y, double damage){
+        this.type = type;
+        this.player = player;
+        this.x = x;
+        this.y = y;
+        this.damage = damage;
+    }
+}
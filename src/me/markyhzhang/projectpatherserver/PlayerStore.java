@@ -0,0 +1,271 @@
+package me.markyhzhang.projectpatherserver;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * @author Yi Han (Mark) Zhang
+ *
+ * This class keeps the state of every player in the game in
+ * parallel primitive arrays indexed by a dense integer slot,
+ * so the loops going over every player (the combat, the snapshot
+ * capture and the server window) scan contiguous memory instead
+ * of following a pointer per player. A slot is the small integer
+ * id of the player and is reused by the next player to join once
+ * its player left.
+ *
+ * The arrays are only written by the GameSimulation thread while
+ * it holds the lock of the store, which adding and removing players
+ * also take, so a tick always sees the players and the arrays
+ * consistent. Other threads may read a value that is a tick old.
+ */
+public class PlayerStore {
+
+    /**
+     * Bit set in flags while the player is attacking
+     */
+    static final int ATTACKING = BinaryProtocol.FLAG_ATTACKING;
+
+    /**
+     * Bit set in flags while the player is damaged
+     */
+    static final int DAMAGING = BinaryProtocol.FLAG_DAMAGING;
+
+    /**
+     * The slots currently in use
+     */
+    private BitSet used = new BitSet();
+
+    /**
+     * One more than the highest slot in use
+     */
+    private volatile int high = 0;
+
+    /**
+     * The player in each slot, null if free
+     */
+    private Player[] players;
+
+    /**
+     * The X coordinate of each slot
+     */
+    private double[] x;
+
+    /**
+     * The Y coordinate of each slot
+     */
+    private double[] y;
+
+    /**
+     * The health of each slot
+     */
+    private double[] health;
+
+    /**
+     * The attack damage of each slot
+     */
+    private double[] attackDamage;
+
+    /**
+     * The ATTACKING and DAMAGING bits of each slot
+     */
+    private byte[] flags;
+
+    /**
+     * Constructor for this class
+     * @param capacity integer initial number of slots
+     */
+    PlayerStore(int capacity){
+        players = new Player[capacity];
+        x = new double[capacity];
+        y = new double[capacity];
+        health = new double[capacity];
+        attackDamage = new double[capacity];
+        flags = new byte[capacity];
+    }
+
+    /**
+     * Puts a player in the lowest free slot, its
+     * current state is moved into the arrays
+     * @param p Player
+     * @return integer the slot of the player
+     */
+    synchronized int add(Player p){
+        int slot = used.nextClearBit(0);
+        if (slot == players.length) grow(slot * 2);
+        used.set(slot);
+        players[slot] = p;
+        x[slot] = p.getX();
+        y[slot] = p.getY();
+        health[slot] = p.getHealth();
+        attackDamage[slot] = p.getAttackDamage();
+        flags[slot] = (byte) ((p.isAttacking() ? ATTACKING : 0) | (p.isDamaging() ? DAMAGING : 0));
+        p.attach(this, slot);
+        if (slot >= high) high = slot + 1;
+        return slot;
+    }
+
+    /**
+     * Frees the slot of a player, its last
+     * state is moved back into the Player
+     * @param p Player
+     */
+    synchronized void remove(Player p){
+        int slot = p.getSlot();
+        if (slot < 0 || players[slot] != p) return;
+        p.detach();
+        players[slot] = null;
+        flags[slot] = 0;
+        used.clear(slot);
+        high = used.length();
+    }
+
+    /**
+     * Grows every array
+     * @param capacity integer new number of slots
+     */
+    private void grow(int capacity){
+        players = Arrays.copyOf(players, capacity);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        health = Arrays.copyOf(health, capacity);
+        attackDamage = Arrays.copyOf(attackDamage, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+    }
+
+    /**
+     * Getter for one more than the highest slot in use,
+     * loops go over the slots below it skipping the free ones
+     * @return integer
+     */
+    public int getHigh(){
+        return high;
+    }
+
+    /**
+     * Getter for the player in a slot
+     * @param slot integer
+     * @return Player or null if the slot is free
+     */
+    public Player getPlayer(int slot){
+        return players[slot];
+    }
+
+    /**
+     * Getter for the X coordinate of a slot
+     * @param slot integer
+     * @return double
+     */
+    public double getX(int slot){
+        return x[slot];
+    }
+
+    /**
+     * Setter for the X coordinate of a slot
+     * @param slot integer
+     * @param value double
+     */
+    void setX(int slot, double value){
+        x[slot] = value;
+    }
+
+    /**
+     * Getter for the Y coordinate of a slot
+     * @param slot integer
+     * @return double
+     */
+    public double getY(int slot){
+        return y[slot];
+    }
+
+    /**
+     * Setter for the Y coordinate of a slot
+     * @param slot integer
+     * @param value double
+     */
+    void setY(int slot, double value){
+        y[slot] = value;
+    }
+
+    /**
+     * Getter for the health of a slot
+     * @param slot integer
+     * @return double
+     */
+    public double getHealth(int slot){
+        return health[slot];
+    }
+
+    /**
+     * Setter for the health of a slot
+     * @param slot integer
+     * @param value double
+     */
+    void setHealth(int slot, double value){
+        health[slot] = value;
+    }
+
+    /**
+     * Getter for if the player of a slot is alive
+     * @param slot integer
+     * @return boolean
+     */
+    public boolean isAlive(int slot){
+        return health[slot] > 0;
+    }
+
+    /**
+     * Getter for the attack damage of a slot
+     * @param slot integer
+     * @return double
+     */
+    double getAttackDamage(int slot){
+        return attackDamage[slot];
+    }
+
+    /**
+     * Setter for the attack damage of a slot
+     * @param slot integer
+     * @param value double
+     */
+    void setAttackDamage(int slot, double value){
+        attackDamage[slot] = value;
+    }
+
+    /**
+     * Getter for the ATTACKING and DAMAGING bits of a slot
+     * @param slot integer
+     * @return integer
+     */
+    int getFlags(int slot){
+        return flags[slot];
+    }
+
+    /**
+     * Getter for if the player of a slot is attacking
+     * @param slot integer
+     * @return boolean
+     */
+    public boolean isAttacking(int slot){
+        return (flags[slot] & ATTACKING) != 0;
+    }
+
+    /**
+     * Getter for if the player of a slot is damaged
+     * @param slot integer
+     * @return boolean
+     */
+    public boolean isDamaging(int slot){
+        return (flags[slot] & DAMAGING) != 0;
+    }
+
+    /**
+     * Sets or clears a flag of a slot
+     * @param slot integer
+     * @param flag integer ATTACKING or DAMAGING
+     * @param value boolean
+     */
+    void setFlag(int slot, int flag, boolean value){
+        flags[slot] = (byte) (value ? flags[slot] | flag : flags[slot] & ~flag);
+    }
+}
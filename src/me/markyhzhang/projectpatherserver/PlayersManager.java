@@ -11,7 +11,8 @@ import java.util.concurrent.ConcurrentHashMap;
  * This class manages all the players. It encapsulates
  * a ConcurrentHashMap to prevent ConcurrentModificationException
  * that contains all the players as value and their UUID as keys
- * to the ConcurrentHashMap
+ * to the ConcurrentHashMap. The state of the players
+ * itself is kept in a PlayerStore
  */
 public class PlayersManager {
 
@@ -21,6 +22,22 @@ public class PlayersManager {
      */
     private ConcurrentHashMap<UUID, Player> players;
 
+    /**
+     * The state of the players in parallel arrays,
+     * the slot of a player is its small integer id
+     */
+    private PlayerStore store = new PlayerStore(64);
+
+    /**
+     * The spatial index of the players, null until the map is generated
+     */
+    private SpatialGrid grid;
+
+    /**
+     * Incremented every time a player is added or removed
+     */
+    private volatile int version = 0;
+
     /**
      * Constructor for this class
      */
@@ -29,11 +46,21 @@ public class PlayersManager {
     }
 
     /**
-     * Adds a player to the hashmap
+     * Adds a player to the hashmap and the store,
+     * its slot is the lowest free small integer id.
+     * Holds the lock of the store like a GameSimulation
+     * tick, so a tick never sees the player in the store
+     * but not in the grid
      * @param player Player object
      */
     void addPlayer(Player player){
-        players.put(player.getId(), player);
+        synchronized (store) {
+            int slot = store.add(player);
+            player.setNetId(slot);
+            players.put(player.getId(), player);
+            if (grid != null) grid.add(slot, player.getX(), player.getY());
+            version++;
+        }
     }
 
     /**
@@ -54,11 +81,64 @@ public class PlayersManager {
     }
 
     /**
-     * Removes the player by their UUID
+     * Removes the player by their UUID and
+     * frees its slot and small integer id,
+     * under the lock of the store like addPlayer
      * @param id UUID
      */
     void removePlayer(UUID id){
-        players.remove(id);
+        synchronized (store) {
+            Player player = players.remove(id);
+            if (player != null) {
+                if (grid != null) grid.remove(player.getSlot());
+                store.remove(player);
+                version++;
+            }
+        }
+    }
+
+    /**
+     * Getter for the membership version, it changes
+     * every time a player is added or removed
+     * @return integer
+     */
+    int getVersion(){
+        return version;
+    }
+
+    /**
+     * Creates the spatial index of the players
+     * for a map of the given size
+     * @param width integer number of cells along x
+     * @param height integer number of cells along y
+     */
+    void initGrid(int width, int height){
+        grid = new SpatialGrid(width, height);
+    }
+
+    /**
+     * Getter for the spatial index of the players
+     * @return SpatialGrid
+     */
+    SpatialGrid getGrid(){
+        return grid;
+    }
+
+    /**
+     * Updates the spatial index after the location
+     * of the player changed
+     * @param player Player
+     */
+    void movePlayer(Player player){
+        if (grid != null) grid.move(player.getSlot(), player.getX(), player.getY());
+    }
+
+    /**
+     * Getter for the store holding the state of the players
+     * @return PlayerStore
+     */
+    public PlayerStore getStore(){
+        return store;
     }
 
     /**
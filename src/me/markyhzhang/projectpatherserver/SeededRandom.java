@@ -0,0 +1,55 @@
+package me.markyhzhang.projectpatherserver;
+
+/**
+ * @author Yi Han (Mark) Zhang
+ *
+ * This class is the pseudo random generator of the map
+ * generation. It is SplitMix64, which is tiny and fully
+ * specified, so clients written in any language can produce
+ * the exact same numbers from the same seed:
+ *
+ * next():  state += 0x9E3779B97F4A7C15
+ *          z = state
+ *          z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9
+ *          z = (z ^ (z >>> 27)) * 0x94D049BB133111EB
+ *          return z ^ (z >>> 31)
+ * nextInt(bound): (next() >>> 1) % bound, 0 if bound <= 0
+ *
+ * All arithmetic is on unsigned 64 bit integers wrapping around.
+ */
+final class SeededRandom {
+
+    /**
+     * The state of the generator
+     */
+    private long state;
+
+    /**
+     * The constructor for this class
+     * @param seed long
+     */
+    SeededRandom(long seed){
+        state = seed;
+    }
+
+    /**
+     * Getter for the next 64 random bits
+     * @return long
+     */
+    long next(){
+        long z = (state += 0x9E3779B97F4A7C15L);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Getter for a random integer from 0 (inclusive) to bound (exclusive)
+     * @param bound integer
+     * @return integer, 0 if bound isn't positive
+     */
+    int nextInt(int bound){
+        if (bound <= 0) return 0;
+        return (int) ((next() >>> 1) % bound);
+    }
+}
@@ -0,0 +1,171 @@
+package me.markyhzhang.projectpatherserver;
+
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @author Yi Han (Mark) Zhang
+ *
+ * This class holds the live metrics of the server. The
+ * instruments are static so the hot paths record into them
+ * without looking anything up.
+ *
+ * The metrics are published over JMX as the bean
+ * me.markyhzhang.projectpatherserver:type=Metrics and, when
+ * -Dpather.metricsPort is set, as "name value" lines on
+ * http://127.0.0.1:port/metrics followed by one line per client.
+ * -Dpather.metricsInterval sets the seconds between two samples
+ * of the rates and percentiles (5 by default).
+ */
+final class ServerMetrics {
+
+    /**
+     * Port of the text endpoint, 0 for none
+     */
+    private static final int PORT = Integer.getInteger("pather.metricsPort", 0);
+
+    /**
+     * The registry of every metric of the server
+     */
+    static final MetricsRegistry REGISTRY = new MetricsRegistry(Integer.getInteger("pather.metricsInterval", 5));
+
+    /**
+     * Duration of a GameSimulation tick
+     */
+    static final MetricsRegistry.Histogram SIMULATION_TICK = REGISTRY.histogram("simulation.tick");
+
+    /**
+     * Duration of a DataSender tick that sent a snapshot
+     */
+    static final MetricsRegistry.Histogram SENDER_TICK = REGISTRY.histogram("sender.tick");
+
+    /**
+     * Bytes and packets received from the clients
+     */
+    static final MetricsRegistry.Counter BYTES_IN = REGISTRY.counter("net.bytesIn");
+    static final MetricsRegistry.Counter MESSAGES_IN = REGISTRY.counter("net.messagesIn");
+
+    /**
+     * Bytes and packets written to the clients
+     */
+    static final MetricsRegistry.Counter BYTES_OUT = REGISTRY.counter("net.bytesOut");
+    static final MetricsRegistry.Counter MESSAGES_OUT = REGISTRY.counter("net.messagesOut");
+
+    /**
+     * Connections accepted
+     */
+    static final MetricsRegistry.Counter ACCEPTED = REGISTRY.counter("net.accepted");
+
+    /**
+     * Clients disconnected for not keeping up
+     */
+    static final MetricsRegistry.Counter SLOW_DISCONNECTS = REGISTRY.counter("net.slowDisconnects");
+
+    /**
+     * Either the metrics are published already
+     */
+    private static boolean started = false;
+
+    /**
+     * No instances of this class
+     */
+    private ServerMetrics(){
+    }
+
+    /**
+     * Registers the gauges reading the server and publishes
+     * the metrics, only the first call does anything
+     * @param instance PatherServer main class
+     */
+    static synchronized void start(PatherServer instance){
+        if (started) return;
+        started = true;
+
+        PlayersManager players = instance.getPlayersManager();
+        REGISTRY.gauge("players.connected", players::size);
+        REGISTRY.gauge("players.joining", () -> instance.getDataSender().getPendingJoins());
+        REGISTRY.gauge("players.joinLatency.avg.ms", () -> instance.getDataSender().getAverageJoinLatency() / 1000000);
+        REGISTRY.gauge("players.joinLatency.max.ms", () -> instance.getDataSender().getMaxJoinLatency() / 1000000);
+        REGISTRY.gauge("simulation.rate", () -> instance.getSimulation().getScheduler().getRate());
+        REGISTRY.gauge("simulation.overruns", () -> instance.getSimulation().getScheduler().getOverruns());
+        REGISTRY.gauge("simulation.skipped", () -> instance.getSimulation().getScheduler().getSkipped());
+        REGISTRY.gauge("sender.rate", () -> instance.getDataSender().getScheduler().getRate());
+        REGISTRY.gauge("sender.overruns", () -> instance.getDataSender().getScheduler().getOverruns());
+        REGISTRY.gauge("sender.skipped", () -> instance.getDataSender().getScheduler().getSkipped());
+        REGISTRY.gauge("map.generation.ms", () -> instance.getMapGenerationTime() / 1000000);
+        REGISTRY.gauge("outbound.bytes.total", () -> {
+            long total = 0;
+            for (Player p : players.getPlayersList()) total += p.getOutbound().getBytes();
+            return total;
+        });
+        REGISTRY.gauge("outbound.bytes.max", () -> {
+            long max = 0;
+            for (Player p : players.getPlayersList()) max = Math.max(max, p.getOutbound().getBytes());
+            return max;
+        });
+        REGISTRY.gauge("outbound.lag.max.ms", () -> {
+            long max = 0;
+            for (Player p : players.getPlayersList()) max = Math.max(max, p.getOutbound().getLag());
+            return max / 1000000;
+        });
+        REGISTRY.gauge("outbound.dropped", () -> {
+            long total = 0;
+            for (Player p : players.getPlayersList()) total += p.getOutboundDropped();
+            return total;
+        });
+        REGISTRY.startSampler();
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(REGISTRY.toMBean(), new ObjectName("me.markyhzhang.projectpatherserver:type=Metrics"));
+        } catch (Exception e) {
+            System.out.println("Cannot register the metrics bean: " + e.getMessage());
+        }
+
+        if (PORT > 0) {
+            try {
+                //only reachable from the machine itself
+                HttpServer http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), PORT), 0);
+                http.createContext("/metrics", exchange -> {
+                    byte[] body = text(players).getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                });
+                http.start();
+                System.out.println("Metrics on http://127.0.0.1:" + PORT + "/metrics");
+            } catch (IOException e) {
+                System.out.println("Cannot start the metrics endpoint on port " + PORT);
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Every metric as text, then the outbound queue of every client
+     * @param players PlayersManager
+     * @return String
+     */
+    private static String text(PlayersManager players){
+        StringBuilder out = new StringBuilder(2048);
+        REGISTRY.writeText(out);
+        out.append("# client name bytes depth lag.ms dropped\n");
+        for (Player p : players.getPlayersList()) {
+            OutboundQueue queue = p.getOutbound();
+            out.append("client ").append(p.getName().replace(' ', '_'))
+                    .append(' ').append(queue.getBytes())
+                    .append(' ').append(queue.getDepth())
+                    .append(' ').append(queue.getLag() / 1000000)
+                    .append(' ').append(queue.getDropped()).append('\n');
+        }
+        return out.toString();
+    }
+}
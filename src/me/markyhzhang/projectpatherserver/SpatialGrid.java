@@ -0,0 +1,181 @@
+package me.markyhzhang.projectpatherserver;
+
+import java.util.Arrays;
+
+/**
+ * @author Yi Han (Mark) Zhang
+ *
+ * This class is a uniform grid of buckets keyed on the integer
+ * cells of the maze. Every player sits in the bucket of the cell
+ * it stands on, and the bucket is updated incrementally when the
+ * player moves, so finding the players near a point only has to
+ * look at the few buckets around it instead of every player.
+ *
+ * Players are referred to by their PlayerStore slot. Each bucket is
+ * an int array with swap-remove and the grid remembers the cell of
+ * every slot and its position in that bucket, so add, move and
+ * remove are O(1).
+ */
+class SpatialGrid {
+
+    /**
+     * Number of cells along x
+     */
+    private int width;
+
+    /**
+     * Number of cells along y
+     */
+    private int height;
+
+    /**
+     * The slots of the players in each cell, cell index is x * height + y
+     */
+    private int[][] buckets;
+
+    /**
+     * Number of players in each bucket
+     */
+    private int[] sizes;
+
+    /**
+     * The cell of each slot, -1 if not in the grid
+     */
+    private int[] cellOf = new int[0];
+
+    /**
+     * The position of each slot in the bucket of its cell
+     */
+    private int[] indexOf = new int[0];
+
+    /**
+     * The constructor for this class
+     * @param width integer number of cells along x (map width)
+     * @param height integer number of cells along y (map height)
+     */
+    SpatialGrid(int width, int height){
+        this.width = width;
+        this.height = height;
+        buckets = new int[width * height][];
+        sizes = new int[width * height];
+    }
+
+    /**
+     * The cell index of a location, locations
+     * outside of the map are clamped to its border
+     * @param x double
+     * @param y double
+     * @return integer
+     */
+    private int cellAt(double x, double y){
+        int cx = Math.min(width - 1, Math.max(0, (int) Math.floor(x)));
+        int cy = Math.min(height - 1, Math.max(0, (int) Math.floor(y)));
+        return cx * height + cy;
+    }
+
+    /**
+     * Adds a player at a location
+     * @param slot integer slot of the player
+     * @param x double
+     * @param y double
+     */
+    synchronized void add(int slot, double x, double y){
+        if (slot >= cellOf.length) {
+            int old = cellOf.length;
+            cellOf = Arrays.copyOf(cellOf, Math.max(slot + 1, old * 2));
+            indexOf = Arrays.copyOf(indexOf, cellOf.length);
+            Arrays.fill(cellOf, old, cellOf.length, -1);
+        }
+        insert(slot, cellAt(x, y));
+    }
+
+    /**
+     * Removes a player
+     * @param slot integer slot of the player
+     */
+    synchronized void remove(int slot){
+        if (slot < cellOf.length && cellOf[slot] >= 0) delete(slot);
+    }
+
+    /**
+     * Moves a player to the bucket of its new
+     * location, called after its location changed
+     * @param slot integer slot of the player
+     * @param x double
+     * @param y double
+     */
+    synchronized void move(int slot, double x, double y){
+        if (slot >= cellOf.length || cellOf[slot] < 0) return;
+        int cell = cellAt(x, y);
+        if (cell == cellOf[slot]) return;
+        delete(slot);
+        insert(slot, cell);
+    }
+
+    /**
+     * Collects the players whose bucket may contain a point
+     * within the radius of the location. Callers still have to
+     * check the exact distance.
+     * @param x double
+     * @param y double
+     * @param radius double
+     * @param out int[] scratch array receiving the slots
+     * @return int[] the out array, or a bigger copy if it was too small,
+     * terminated by -1 if not full
+     */
+    synchronized int[] collectNear(double x, double y, double radius, int[] out){
+        int minX = Math.max(0, (int) Math.floor(x - radius));
+        int maxX = Math.min(width - 1, (int) Math.floor(x + radius));
+        int minY = Math.max(0, (int) Math.floor(y - radius));
+        int maxY = Math.min(height - 1, (int) Math.floor(y + radius));
+        int n = 0;
+        for (int cx = minX; cx <= maxX; cx++) {
+            for (int cy = minY; cy <= maxY; cy++) {
+                int cell = cx * height + cy;
+                int size = sizes[cell];
+                if (size == 0) continue;
+                if (n + size >= out.length) out = Arrays.copyOf(out, Math.max(out.length * 2, n + size + 1));
+                System.arraycopy(buckets[cell], 0, out, n, size);
+                n += size;
+            }
+        }
+        if (n < out.length) out[n] = -1;
+        return out;
+    }
+
+    /**
+     * Puts a slot in a bucket
+     * @param slot integer
+     * @param cell integer
+     */
+    private void insert(int slot, int cell){
+        int[] bucket = buckets[cell];
+        int size = sizes[cell];
+        if (bucket == null) {
+            bucket = buckets[cell] = new int[4];
+        } else if (size == bucket.length) {
+            bucket = buckets[cell] = Arrays.copyOf(bucket, size * 2);
+        }
+        bucket[size] = slot;
+        sizes[cell] = size + 1;
+        cellOf[slot] = cell;
+        indexOf[slot] = size;
+    }
+
+    /**
+     * Takes a slot out of its bucket
+     * by swapping the last one in its place
+     * @param slot integer
+     */
+    private void delete(int slot){
+        int cell = cellOf[slot];
+        int index = indexOf[slot];
+        int[] bucket = buckets[cell];
+        int last = --sizes[cell];
+        if (index != last) {
+            bucket[index] = bucket[last];
+            indexOf[bucket[index]] = index;
+        }
+        cellOf[slot] = -1;
+    }
+}
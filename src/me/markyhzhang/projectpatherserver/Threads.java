@@ -0,0 +1,70 @@
+package me.markyhzhang.projectpatherserver;
+
+import java.lang.reflect.Method;
+
+/**
+ * @author Yi Han (Mark) Zhang
+ *
+ * This class starts the server's blocking tasks either on
+ * platform threads or on virtual threads. Virtual threads
+ * are looked up by reflection so the server still runs on
+ * JVMs that don't have them, falling back to platform threads.
+ */
+final class Threads {
+
+    /**
+     * Thread.startVirtualThread(Runnable), null when not supported
+     */
+    private static final Method START_VIRTUAL = findStartVirtual();
+
+    /**
+     * No instances of this class
+     */
+    private Threads(){
+    }
+
+    /**
+     * Looks up Thread.startVirtualThread(Runnable)
+     * @return Method or null if the JVM has no virtual threads
+     */
+    private static Method findStartVirtual(){
+        try {
+            Method method = Thread.class.getMethod("startVirtualThread", Runnable.class);
+            //make sure they are actually usable and not a disabled preview feature
+            method.invoke(null, (Runnable) () -> {});
+            return method;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Getter for if this JVM supports virtual threads
+     * @return boolean
+     */
+    static boolean isVirtualSupported(){
+        return START_VIRTUAL != null;
+    }
+
+    /**
+     * Starts the task on a new thread
+     * @param task Runnable
+     * @param name String name of the thread
+     * @param virtual boolean if it should be a virtual thread
+     * @return Thread the started thread
+     */
+    static Thread start(Runnable task, String name, boolean virtual){
+        if (virtual && START_VIRTUAL != null) {
+            try {
+                Thread thread = (Thread) START_VIRTUAL.invoke(null, task);
+                thread.setName(name);
+                return thread;
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+        Thread thread = new Thread(task, name);
+        thread.start();
+        return thread;
+    }
+}
@@ -0,0 +1,205 @@
+package me.markyhzhang.projectpatherserver;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author Yi Han (Mark) Zhang
+ *
+ * This class paces a loop at a fixed rate on absolute deadlines:
+ * each tick is due one period after the previous deadline, not
+ * after the previous tick ended, so the time spent working doesn't
+ * add up into drift. A tick that ends after the next deadline is an
+ * overrun; when the loop is more than a few periods behind it drops
+ * the missed ticks instead of running them back to back.
+ *
+ * When adaptive, the rate is halved (200, 100, 50 for a rate of 200)
+ * after a window of as many ticks as the rate (a second when the loop
+ * never waits on anything else) in which more than a tenth of the
+ * ticks overran, and doubled back after 3 windows in a row in which
+ * every tick would have fit in half of the faster period.
+ */
+final class TickScheduler {
+
+    /**
+     * Fraction of overrunning ticks in a window that lowers the rate
+     */
+    private static final double OVERRUN_LIMIT = 0.1;
+
+    /**
+     * Windows in a row that must be calm before the rate goes back up
+     */
+    private static final int CALM_WINDOWS = 3;
+
+    /**
+     * Number of periods behind after which the missed ticks are dropped
+     */
+    private static final int MAX_BEHIND = 5;
+
+    /**
+     * Name of the loop in the messages
+     */
+    private final String name;
+
+    /**
+     * The highest rate, in ticks per second
+     */
+    private final int baseRate;
+
+    /**
+     * The lowest rate the adaptive mode goes down to
+     */
+    private final int minRate;
+
+    /**
+     * Either the rate follows the load
+     */
+    private final boolean adaptive;
+
+    /**
+     * The current rate, in ticks per second
+     */
+    private volatile int rate;
+
+    /**
+     * Nanoseconds between two deadlines at the current rate
+     */
+    private long period;
+
+    /**
+     * Deadline of the next tick, System.nanoTime()
+     */
+    private long next;
+
+    /**
+     * System.nanoTime() when the current tick started
+     */
+    private long tickStart;
+
+    /**
+     * Ticks, overruns and longest tick of the current window
+     */
+    private int windowTicks, windowOverruns;
+    private long windowMaxWork;
+
+    /**
+     * Calm windows in a row
+     */
+    private int calm;
+
+    /**
+     * Totals since the start, readable from any thread
+     */
+    private volatile long overruns, skipped;
+
+    /**
+     * The constructor of this scheduler
+     * @param name String name of the loop
+     * @param rate integer ticks per second
+     * @param adaptive boolean if the rate is lowered under sustained overload
+     */
+    TickScheduler(String name, int rate, boolean adaptive){
+        this.name = name;
+        this.baseRate = Math.max(1, rate);
+        this.minRate = Math.max(1, baseRate / 4);
+        this.adaptive = adaptive;
+        setRate(baseRate);
+        next = System.nanoTime();
+        tickStart = next;
+    }
+
+    /**
+     * Changes the current rate
+     * @param rate integer ticks per second
+     */
+    private void setRate(int rate){
+        this.rate = rate;
+        period = 1000000000L / rate;
+    }
+
+    /**
+     * Ends the current tick and waits for the deadline of the next
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void await() throws InterruptedException {
+        long now = System.nanoTime();
+        long work = now - tickStart;
+        next += period;
+        if (now > next) {
+            overruns++;
+            windowOverruns++;
+        }
+        if (work > windowMaxWork) windowMaxWork = work;
+        if (++windowTicks >= rate) endWindow();
+
+        if (now - next > period * MAX_BEHIND) {
+            //too far behind to catch up, start over from now
+            skipped += (now - next) / period;
+            next = now;
+        } else {
+            while ((now = System.nanoTime()) < next) {
+                LockSupport.parkNanos(this, next - now);
+                if (Thread.interrupted()) throw new InterruptedException();
+            }
+        }
+        tickStart = System.nanoTime();
+    }
+
+    /**
+     * Starts the deadlines over from now, after the loop waited on
+     * something else, so the time it waited isn't counted as overruns
+     */
+    void restart(){
+        next = System.nanoTime();
+        tickStart = next;
+    }
+
+    /**
+     * Adapts the rate to the window that ended, about a second of ticks
+     */
+    private void endWindow(){
+        if (adaptive) {
+            if (windowOverruns > windowTicks * OVERRUN_LIMIT && rate / 2 >= minRate) {
+                calm = 0;
+                setRate(rate / 2);
+                System.out.println(name + " overloaded (" + windowOverruns + " of " + windowTicks
+                        + " ticks overran), lowering the rate to " + rate + " per second");
+            } else if (rate < baseRate && windowOverruns == 0 && windowMaxWork < period / 4) {
+                //the longest tick fits in half of the period of the doubled rate
+                if (++calm >= CALM_WINDOWS) {
+                    calm = 0;
+                    setRate(Math.min(baseRate, rate * 2));
+                    System.out.println(name + " recovered, raising the rate to " + rate + " per second");
+                }
+            } else {
+                calm = 0;
+            }
+        }
+        windowTicks = 0;
+        windowOverruns = 0;
+        windowMaxWork = 0;
+    }
+
+    /**
+     * Getter for the current rate
+     * @return integer ticks per second
+     */
+    int getRate(){
+        return rate;
+    }
+
+    /**
+     * Getter for the number of ticks that ended after the next deadline
+     * @return long
+     */
+    long getOverruns(){
+        return overruns;
+    }
+
+    /**
+     * Getter for the number of ticks dropped because the loop was too far behind
+     * @return long
+     */
+    long getSkipped(){
+        return skipped;
+    }
+}
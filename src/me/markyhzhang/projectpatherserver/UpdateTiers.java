@@ -0,0 +1,79 @@
+package me.markyhzhang.projectpatherserver;
+
+/**
+ * @author Yi Han (Mark) Zhang
+ *
+ * This class holds the distance tiers deciding how often a
+ * client is sent the state of the players around it. The players
+ * closer than the first distance are sent every tick, the ones
+ * beyond the i-th distance every i-th interval ticks. With
+ *
+ *   -Dpather.tierDistances=8,16 -Dpather.tierIntervals=3,12
+ *
+ * the players within 8 cells are sent every tick, within 16 cells
+ * every 3 ticks and the farther ones every 12 ticks.
+ *
+ * Tiers apply to the clients sent their area of interest
+ * (see InterestSet), the farthest tier ends at the interest radius.
+ */
+final class UpdateTiers {
+
+    /**
+     * Squared distance in cells where each tier starts, increasing
+     */
+    private final double[] distances2;
+
+    /**
+     * Ticks between two updates of each tier beyond the first
+     */
+    private final int[] intervals;
+
+    /**
+     * The constructor of the tiers
+     * @param distances double[] distance in cells where each tier starts, increasing
+     * @param intervals int[] ticks between two updates of each of these tiers
+     */
+    UpdateTiers(double[] distances, int[] intervals){
+        if (distances.length != intervals.length) throw new IllegalArgumentException(distances.length + " tier distances for " + intervals.length + " intervals");
+        distances2 = new double[distances.length];
+        for (int i = 0; i < distances.length; i++) {
+            if (i > 0 && distances[i] <= distances[i - 1]) throw new IllegalArgumentException("Tier distances must increase");
+            if (intervals[i] < 1) throw new IllegalArgumentException("Tier intervals must be at least 1");
+            distances2[i] = distances[i] * distances[i];
+        }
+        this.intervals = intervals.clone();
+    }
+
+    /**
+     * Reads the tiers from -Dpather.tierDistances and -Dpather.tierIntervals
+     * @return UpdateTiers or null if they aren't set or invalid
+     */
+    static UpdateTiers fromProperties(){
+        String distances = System.getProperty("pather.tierDistances");
+        String intervals = System.getProperty("pather.tierIntervals");
+        if (distances == null || distances.trim().isEmpty()) return null;
+        try {
+            String[] d = distances.split(",");
+            String[] t = intervals == null ? new String[0] : intervals.split(",");
+            double[] dist = new double[d.length];
+            int[] ticks = new int[t.length];
+            for (int i = 0; i < d.length; i++) dist[i] = Double.parseDouble(d[i].trim());
+            for (int i = 0; i < t.length; i++) ticks[i] = Integer.parseInt(t[i].trim());
+            return new UpdateTiers(dist, ticks);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid update tiers, every player is sent every tick: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Getter for the ticks between two updates of a player
+     * @param distance2 double squared distance in cells to the client
+     * @return integer 1 for every tick
+     */
+    int intervalOf(double distance2){
+        int interval = 1;
+        for (int i = 0; i < distances2.length && distance2 >= distances2[i]; i++) interval = intervals[i];
+        return interval;
+    }
+}
@@ -0,0 +1,305 @@
+package me.markyhzhang.projectpatherserver;
+
+import java.util.HashMap;
+
+/**
+ * @author Yi Han (Mark) Zhang
+ *
+ * This class is an immutable capture of every player's state
+ * at one tick. It is built once per tick and encoded once for
+ * each protocol, then the same bytes are handed to every
+ * recipient so a tick costs O(N) instead of O(N^2).
+ *
+ * The encodings are built lazily on first use and are only
+ * ever requested by the DataSender thread.
+ */
+final class WorldSnapshot {
+
+    /**
+     * The tick this snapshot was captured at
+     */
+    private final int tick;
+
+    /**
+     * The membership version of the PlayersManager when captured
+     */
+    private final int version;
+
+    /**
+     * Number of players in this snapshot
+     */
+    private final int count;
+
+    /**
+     * The captured players, only their immutable
+     * id, name and type are read from them
+     */
+    private final Player[] players;
+
+    /**
+     * Status flags of each player (see BinaryProtocol.FLAG_*)
+     */
+    private final int[] flags;
+
+    /**
+     * X coordinate of each player
+     */
+    private final double[] x;
+
+    /**
+     * Y coordinate of each player
+     */
+    private final double[] y;
+
+    /**
+     * Health of each player
+     */
+    private final double[] health;
+
+    /**
+     * Position of each player in this snapshot by its small
+     * integer id, -1 if the id isn't in this snapshot
+     */
+    private final int[] indexById;
+
+    /**
+     * The legacy text state line followed by the line separator
+     */
+    private byte[] textLine;
+
+    /**
+     * The binary SNAPSHOT frame
+     */
+    private byte[] binaryFrame;
+
+    /**
+     * The binary KEYFRAME frame
+     */
+    private byte[] keyframe;
+
+    /**
+     * The DELTA frames from older snapshots by their tick, clients
+     * that acknowledged the same tick share the same frame
+     */
+    private HashMap<Integer, byte[]> deltaFrames = new HashMap<>();
+
+    /**
+     * Captures the state of every player, scanning the PlayerStore
+     * arrays in slot order. Called by the GameSimulation while it
+     * holds the lock of the store
+     * @param tick integer tick number
+     * @param manager PlayersManager
+     */
+    WorldSnapshot(int tick, PlayersManager manager){
+        this.tick = tick;
+        this.version = manager.getVersion();
+        PlayerStore store = manager.getStore();
+        int high = store.getHigh();
+        Player[] players = new Player[high];
+        int[] flags = new int[high];
+        double[] x = new double[high];
+        double[] y = new double[high];
+        double[] health = new double[high];
+        int[] indexById = new int[high];
+        int n = 0;
+        for (int slot = 0; slot < high; slot++) {
+            Player p = store.getPlayer(slot);
+            if (p == null) {
+                indexById[slot] = -1;
+                continue;
+            }
+            indexById[slot] = n;
+            players[n] = p;
+            flags[n] = store.getFlags(slot) | (store.isAlive(slot) ? 0 : BinaryProtocol.FLAG_DIED);
+            x[n] = store.getX(slot);
+            y[n] = store.getY(slot);
+            health[n] = store.getHealth(slot);
+            n++;
+        }
+        this.count = n;
+        this.players = players;
+        this.flags = flags;
+        this.x = x;
+        this.y = y;
+        this.health = health;
+        this.indexById = indexById;
+    }
+
+    /**
+     * Encodes the legacy text state line
+     *
+     * Data format:
+     * DIED/NORMAL|ATTACKING/NORMAL|DAMAGING/NORMAL|uuid|playerName|PlayerTypeEnum|x|y|health
+     *
+     * % sign is used to differentiate multiple players, example:
+     * NORMAL|ATTACKING|NORMAL|b039d756-3377-11e6-ac61-9e71128cae77|Mark|ALPHA|650.0|100.0|100.0%NORMAL|NORMAL|DAMAING|cf2fccce-3377-11e6-ac61-9e71128cae77|Mango|BETA|75.0|15.0|100.0
+     *
+     * @return byte[] the line including the line separator
+     */
+    private byte[] encodeText(){
+        StringBuilder data = new StringBuilder(count * 96 + 2);
+        for (int i = 0; i < count; i++) {
+            Player p = players[i];
+            //add information to data accordingly
+            data.append((flags[i] & BinaryProtocol.FLAG_DIED) != 0 ? "DIED|" : "NORMAL|");
+            data.append((flags[i] & BinaryProtocol.FLAG_ATTACKING) != 0 ? "ATTACKING|" : "NORMAL|");
+            data.append((flags[i] & BinaryProtocol.FLAG_DAMAGING) != 0 ? "DAMAGING|" : "NORMAL|");
+            data.append(p.getIdString()).append('|');
+            data.append(p.getName()).append('|');
+            data.append(p.getType().getStr()).append('|');
+            data.append(x[i]).append('|');
+            data.append(y[i]).append('|');
+            data.append(health[i]);
+            data.append('%');
+        }
+        data.append(System.lineSeparator());
+        //same charset PrintStream.println uses
+        return data.toString().getBytes();
+    }
+
+    /**
+     * Getter for the tick
+     * @return integer
+     */
+    int getTick() {
+        return tick;
+    }
+
+    /**
+     * Getter for if this snapshot holds the exact same players
+     * in the exact same state as another one, only the tick differs
+     * @param other WorldSnapshot or null
+     * @return boolean
+     */
+    boolean sameState(WorldSnapshot other){
+        if (other == null || other.version != version || other.count != count) return false;
+        for (int i = 0; i < count; i++) {
+            if (players[i] != other.players[i] || flags[i] != other.flags[i] || x[i] != other.x[i]
+                    || y[i] != other.y[i] || health[i] != other.health[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Getter for the membership version the snapshot was captured at,
+     * if it differs from the current one players were added or removed since
+     * @return integer
+     */
+    int getVersion() {
+        return version;
+    }
+
+    /**
+     * Getter for the number of players
+     * @return integer
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * Getter for the i-th player
+     * @param i integer
+     * @return Player
+     */
+    Player getPlayer(int i) {
+        return players[i];
+    }
+
+    /**
+     * Getter for the flags of the i-th player
+     * @param i integer
+     * @return integer
+     */
+    int getFlags(int i) {
+        return flags[i];
+    }
+
+    /**
+     * Getter for the x of the i-th player
+     * @param i integer
+     * @return double
+     */
+    double getX(int i) {
+        return x[i];
+    }
+
+    /**
+     * Getter for the y of the i-th player
+     * @param i integer
+     * @return double
+     */
+    double getY(int i) {
+        return y[i];
+    }
+
+    /**
+     * Getter for the health of the i-th player
+     * @param i integer
+     * @return double
+     */
+    double getHealth(int i) {
+        return health[i];
+    }
+
+    /**
+     * Position of a player in this snapshot
+     * @param netId integer small integer id of the player
+     * @return integer index or -1 if not in this snapshot
+     */
+    int indexOf(int netId) {
+        return netId >= 0 && netId < indexById.length ? indexById[netId] : -1;
+    }
+
+    /**
+     * Getter for the shared legacy text line, must not be modified
+     * @return byte[]
+     */
+    byte[] getTextLine() {
+        if (textLine == null) textLine = encodeText();
+        return textLine;
+    }
+
+    /**
+     * Getter for the shared binary SNAPSHOT frame, must not be modified
+     * @return byte[]
+     */
+    byte[] getBinaryFrame() {
+        if (binaryFrame == null) {
+            PacketBuffer buf = new PacketBuffer(count * 15 + 8);
+            BinaryProtocol.writeSnapshot(buf, this);
+            binaryFrame = buf.toByteArray();
+        }
+        return binaryFrame;
+    }
+
+    /**
+     * Getter for the shared binary KEYFRAME frame, must not be modified
+     * @return byte[]
+     */
+    byte[] getKeyframe() {
+        if (keyframe == null) {
+            PacketBuffer buf = new PacketBuffer(count * 15 + 12);
+            BinaryProtocol.writeKeyframe(buf, this, null);
+            keyframe = buf.toByteArray();
+        }
+        return keyframe;
+    }
+
+    /**
+     * Getter for the shared binary DELTA frame from an
+     * older snapshot, must not be modified
+     * @param base WorldSnapshot acknowledged by the client
+     * @return byte[]
+     */
+    byte[] getDeltaFrame(WorldSnapshot base) {
+        byte[] frame = deltaFrames.get(base.getTick());
+        if (frame == null) {
+            PacketBuffer buf = new PacketBuffer(64);
+            BinaryProtocol.writeDelta(buf, this, base, null);
+            frame = buf.toByteArray();
+            deltaFrames.put(base.getTick(), frame);
+        }
+        return frame;
+    }
+}
@@ -1,5 +1,6 @@
 package me.markyhzhang.projectpatherserver.gui;
 
+import me.markyhzhang.projectpatherserver.GameMap;
 import me.markyhzhang.projectpatherserver.PatherServer;
 import me.markyhzhang.projectpatherserver.PlayersManager;
 import me.markyhzhang.projectpatherserver.gui.customcomponents.CustomButton;
@@ -48,10 +49,10 @@ public class MainFrame extends JFrame implements Runnable{
         PlayersManager playersManager = patherServer.getPlayersManager();
 
         //gets the map
-        int[][] map = patherServer.getMap();
+        GameMap map = patherServer.getMap();
 
         //set the size of window depending on the map size
-        setSize(map[0].length*20+200, map.length*20+25);
+        setSize(map.getHeight()*20+200, map.getWidth()*20+25);
         //spawn in the center of screen
         setLocationRelativeTo(null);
         setTitle("ProjectPather by Mark Zhang");
@@ -1,6 +1,8 @@
 package me.markyhzhang.projectpatherserver.gui.customcomponents;
 
+import me.markyhzhang.projectpatherserver.GameMap;
 import me.markyhzhang.projectpatherserver.Player;
+import me.markyhzhang.projectpatherserver.PlayerStore;
 import me.markyhzhang.projectpatherserver.PlayersManager;
 
 import javax.swing.JPanel;
@@ -25,7 +27,7 @@ public class CustomPanel extends JPanel {
     /**
      * The game/maze map
      */
-    private int[][] map;
+    private GameMap map;
 
     /**
      * The colors that represent the four
@@ -45,9 +47,9 @@ public class CustomPanel extends JPanel {
      * The constructor for this class
      *
      * @param playersManager PlayersManager
-     * @param map            int[][]
+     * @param map            GameMap
      */
-    public CustomPanel(PlayersManager playersManager, int[][] map) {
+    public CustomPanel(PlayersManager playersManager, GameMap map) {
         this.playersManager = playersManager;
         this.map = map;
 
@@ -74,15 +76,16 @@ public class CustomPanel extends JPanel {
          */
         //sets the color the white
         g.setColor(new Color(236, 240, 241, 230));
-        for (int i = 0; i < map.length; i++) {
-            for (int j = 0; j < map[i].length; j++) {
-                if (map[i][j] == 0) {//normal floor
+        for (int i = 0; i < map.getWidth(); i++) {
+            for (int j = 0; j < map.getHeight(); j++) {
+                int cell = map.get(i, j);
+                if (cell == GameMap.FLOOR) {//normal floor
                     g.fillRect(i * 20, j * 20, 20, 20);
-                } else if (map[i][j] == 2) {//center
+                } else if (cell == GameMap.CENTER) {//center
                     g.setColor(new Color(241, 196, 15, 230));
                     g.fillRect(i * 20, j * 20, 20, 20);
                     g.setColor(new Color(236, 240, 241, 230));
-                } else if (map[i][j] == 1) {//room
+                } else if (cell == GameMap.ROOM) {//room
                     g.setColor(new Color(0, 121, 88, 255));
                     g.fillRect(i * 20, j * 20, 20, 20);
                     g.setColor(new Color(236, 240, 241, 230));
@@ -119,8 +122,15 @@ public class CustomPanel extends JPanel {
         //drawn player count so that the undisplayed counter could be calculated
         int drawnPlayerCnt = 0;
 
-        //player and player info painting
-        for (Player player : playersManager.getPlayersList()) {
+        //player and player info painting, reading the state straight from the store arrays
+        PlayerStore store = playersManager.getStore();
+        int high = store.getHigh();
+        for (int slot = 0; slot < high; slot++) {
+            Player player = store.getPlayer(slot);
+            if (player == null) continue;
+            double playerX = store.getX(slot);
+            double playerY = store.getY(slot);
+            boolean alive = store.isAlive(slot);
             //gets the player name
             String name = player.getName();
 
@@ -154,21 +164,26 @@ public class CustomPanel extends JPanel {
                 g.drawString(name, initDrawX, initDrawY);
                 g.setFont(new Font("Serif", Font.BOLD, 14));
                 g.setColor(Color.YELLOW);
-                g.drawString("x: " + player.getX(), initDrawX + 10, initDrawY + 20);
-                g.drawString("y: " + player.getY(), initDrawX + 10, initDrawY + 35);
+                g.drawString("x: " + playerX, initDrawX + 10, initDrawY + 20);
+                g.drawString("y: " + playerY, initDrawX + 10, initDrawY + 35);
                 //pink-ish red
                 g.setColor(new Color(255, 127, 178));
-                g.drawString("Health: " + ((int) player.getHealth()), initDrawX + 10, initDrawY + 50);
+                g.drawString("Health: " + ((int) store.getHealth(slot)), initDrawX + 10, initDrawY + 50);
+                //snapshots dropped because the player's connection didn't keep up
+                if (player.getOutboundDropped() > 0) {
+                    g.setColor(Color.ORANGE);
+                    g.drawString("Dropped: " + player.getOutboundDropped(), initDrawX + 100, initDrawY + 50);
+                }
 
                 //if alive then drawn his/her status
-                if (player.isAlive()) {
+                if (alive) {
                     //if attacking draw attacking status
-                    if (player.isAttacking()) {
+                    if (store.isAttacking(slot)) {
                         g.setColor(Color.CYAN);
                         g.drawString("ATTACKING", initDrawX + 10, initDrawY + 65);
                     }
                     //if damaging draw damaging status
-                    if (player.isDamaging()) {
+                    if (store.isDamaging(slot)) {
                         g.setColor(Color.RED);
                         g.drawString("DAMAGING", initDrawX + 100, initDrawY + 65);
                     }
@@ -191,21 +206,21 @@ public class CustomPanel extends JPanel {
                 g.drawString((playersManager.size() - drawnPlayerCnt) + " more players...", getWidth() - 190, getHeight() - 10);
             }
             //if the player is alive then draw his/her location on the map
-            if (player.isAlive()) {
+            if (alive) {
                 //calculate for the x location on the map after scaling factor
-                int x = (int) (player.getX() * 20 - 7.5);
-                int y = (int) (player.getY() * 20 - 7.5);
+                int x = (int) (playerX * 20 - 7.5);
+                int y = (int) (playerY * 20 - 7.5);
                 //sets the color to the player's character's color
                 g.setColor(color);
                 //use a 7.5 radius circle to represent the player
                 g.fillOval(x, y, 15, 15);
                 //if player is damaging draw small red circle
-                if (player.isDamaging()) {
+                if (store.isDamaging(slot)) {
                     g.setColor(Color.RED);
                     g.fillOval(x + 3, y + 3, 10, 10);
                 }
                 //if player is attacking draw medium cyan circle
-                if (player.isAttacking()) {
+                if (store.isAttacking(slot)) {
                     g.setColor(Color.CYAN);
                     g.fillOval(x + 5, y + 5, 5, 5);
                 }